@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import android.content.Context;
+import android.location.Criteria;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * Stands in for the GPS and network providers, so the app gets the same fixes on every run. On
+ * Android 6.0 and up the app also has to be picked as the mock location app:
+ * <pre>adb shell appops set com.thenealboys.kenny.whatsreckless android:mock_location allow</pre>
+ */
+class MockLocationProvider {
+    private static final String[] PROVIDERS = { LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER };
+
+    private final LocationManager manager;
+
+    /**
+     * Replace the real providers with mock ones
+     *
+     * @param context of the app under test
+     * @throws SecurityException if the app isn't allowed to mock locations
+     */
+    MockLocationProvider(Context context) {
+        manager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        try {
+            for (String provider : PROVIDERS) {
+                manager.addTestProvider(provider, false, false, false, false, true, true, true,
+                        Criteria.POWER_LOW, Criteria.ACCURACY_FINE);
+                manager.setTestProviderEnabled(provider, true);
+            }
+        } catch (SecurityException e) {
+            remove();
+            throw e;
+        }
+    }
+
+    /**
+     * Deliver a fix from every mock provider
+     *
+     * @param latitude of the fix
+     * @param longitude of the fix
+     * @param accuracy of the fix in meters
+     */
+    void push(double latitude, double longitude, float accuracy) {
+        for (String provider : PROVIDERS) {
+            Location location = new Location(provider);
+            location.setLatitude(latitude);
+            location.setLongitude(longitude);
+            location.setAccuracy(accuracy);
+            location.setTime(System.currentTimeMillis());
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                location.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
+            }
+            manager.setTestProviderLocation(provider, location);
+        }
+    }
+
+    /**
+     * Give the real providers back
+     */
+    void remove() {
+        for (String provider : PROVIDERS) {
+            try {
+                manager.removeTestProvider(provider);
+            } catch (IllegalArgumentException e) {
+                // Never added
+            }
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import com.thenealboys.kenny.whatsreckless.data.NegativeCache;
+import com.thenealboys.kenny.whatsreckless.data.RecordCache;
+import com.thenealboys.kenny.whatsreckless.data.StateSnapshot;
+import com.thenealboys.kenny.whatsreckless.data.TaskScheduler;
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+import com.thenealboys.kenny.whatsreckless.journal.TripJournal;
+import com.thenealboys.kenny.whatsreckless.notification.CrossingNotifier;
+import com.thenealboys.kenny.whatsreckless.render.StateInfoRenderer;
+import com.thenealboys.kenny.whatsreckless.widget.StateWidgetProvider;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures startup, selection and crossing latency and the allocations per state switch on a
+ * real device. The article comes from a {@link StubArticleServer} and fixes from a
+ * {@link MockLocationProvider}, so runs need no connection and are comparable across builds.
+ * Results are logged and reported as instrumentation status, run with:
+ * <pre>
+ * adb shell pm grant com.thenealboys.kenny.whatsreckless android.permission.ACCESS_FINE_LOCATION
+ * adb shell appops set com.thenealboys.kenny.whatsreckless android:mock_location allow
+ * adb shell am instrument -w -r -e class com.thenealboys.kenny.whatsreckless.RenderBenchmark \
+ *     com.thenealboys.kenny.whatsreckless.test/android.test.InstrumentationTestRunner
+ * </pre>
+ * The app's process is already running when the instrumentation starts, so "cold" here is a
+ * launch with no snapshot to show, the state is loaded before anything is on screen. On a fresh
+ * install the first cold launch also fetches and parses the article. Process start up time is
+ * better taken from {@code am start -W}.
+ * <p>
+ * The benchmark leaves the app as it found it: the settings are restored, crossings are logged in
+ * a scratch journal, and the records of the stub article are cleared from the cache, so the next
+ * real use fetches the article again.
+ */
+public class RenderBenchmark extends InstrumentationTestCase {
+    private static final String LOG_TAG = RenderBenchmark.class.getSimpleName();
+
+    private static final int STARTUP_RUNS = 5;
+    private static final int SWITCHES = 20;
+    private static final int CROSSINGS = 10;
+    private static final long TIMEOUT_MS = 30 * 1000;
+
+    /**
+     * Most a switch between cached states may allocate. The record and its page come from
+     * memory, so this is mostly the WebView's and the views' own garbage.
+     */
+    private static final long MAX_ALLOCATED_BYTES_PER_SWITCH = 512 * 1024;
+
+    /**
+     * Switched between in turn, none of them is the state shown on a launch with no snapshot
+     */
+    private static final String[] SWITCH_STATES = { "Ohio", "Texas", "New York", "California" };
+
+    /**
+     * The crossing goes back and forth over the Potomac, the fixes are on the Virginia side
+     */
+    private static final String CROSSING_FROM = "Virginia";
+    private static final String CROSSING_TO = "Maryland";
+    private static final double FIX_LATITUDE = 38.88;
+    private static final double FIX_LONGITUDE = -77.10;
+    private static final float FIX_ACCURACY_METERS = 10;
+
+    /**
+     * Status code for results, reported alongside the test results by {@code am instrument -r}
+     */
+    private static final int STATUS_RESULT = 2;
+
+    /**
+     * Preference the widget keeps its state in, see {@link StateWidgetProvider}
+     */
+    private static final String PREF_WIDGET_STATE = "widget_state";
+
+    private Context context;
+    private StubArticleServer server;
+    private MockLocationProvider locations;
+    private SharedPreferences prefs;
+    private Map<String, ?> savedPrefs;
+    private File scratchJournal;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = getInstrumentation().getTargetContext();
+
+        server = new StubArticleServer(context.getResources().getStringArray(R.array.states));
+        InformationAsyncTask.setArticleUrl(server.getUrl());
+
+        // Location and state tracking on, so crossings go through the same listeners as on the road
+        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        savedPrefs = new HashMap<String, Object>(prefs.getAll());
+        prefs.edit()
+                .putBoolean("current_location_switch", true)
+                .putBoolean("state_tracking_switch", true)
+                .putBoolean("speed_warning_switch", false)
+                .putString("render_mode", StateInfoRenderer.MODE_WEBVIEW)
+                .commit();
+
+        scratchJournal = new File(context.getCacheDir(), "benchmark_trips");
+
+        locations = new MockLocationProvider(context);
+        locations.push(FIX_LATITUDE, FIX_LONGITUDE, FIX_ACCURACY_METERS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        locations.remove();
+        InformationAsyncTask.setArticleUrl(null);
+        server.shutdown();
+
+        restorePreferences();
+        // Let the background caching of the stub's states finish before clearing them
+        settle();
+        RecordCache.get(context).clear();
+        NegativeCache.get(context).clearNoData();
+        StateSnapshot.clear(context);
+        StateWidgetProvider.push(context, (String) savedPrefs.get(PREF_WIDGET_STATE));
+        ((NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE)).cancelAll();
+        if (scratchJournal.exists() && !scratchJournal.delete()) {
+            Log.w(LOG_TAG, "Unable to delete " + scratchJournal);
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Put the settings back as they were before {@link #setUp()}
+     */
+    @SuppressWarnings("unchecked")
+    private void restorePreferences() {
+        SharedPreferences.Editor editor = prefs.edit().clear();
+        for (Map.Entry<String, ?> entry : savedPrefs.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            } else if (value instanceof Set) {
+                editor.putStringSet(entry.getKey(), (Set<String>) value);
+            }
+        }
+        editor.commit();
+
+        // Removed keys aren't reported to listeners, have the tracker look at the settings again
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StateTracker.get(context).update();
+            }
+        });
+    }
+
+    public void testStartup() throws Exception {
+        long[] cold = new long[STARTUP_RUNS];
+        long[] warm = new long[STARTUP_RUNS];
+        for (int i = 0; i < STARTUP_RUNS; i++) {
+            StateSnapshot.clear(context);
+            cold[i] = launchToFirstContent();
+            // The cold launch left a snapshot behind
+            warm[i] = launchToFirstContent();
+        }
+        report("cold_startup_ms", cold);
+        report("warm_startup_ms", warm);
+        Log.i(LOG_TAG, "Article requests: " + server.getRequestCount());
+    }
+
+    public void testSelectionToRender() throws Exception {
+        MainActivity activity = launchWithoutSnapshot();
+        MainActivityFragment fragment = fragmentOf(activity);
+        RenderWatcher watcher = watch(activity);
+
+        // Load every state once, so the samples measure showing a state rather than fetching it
+        for (String state : SWITCH_STATES) {
+            selectAndWait(fragment, watcher, state);
+        }
+        long[] samples = new long[SWITCHES];
+        for (int i = 0; i < SWITCHES; i++) {
+            samples[i] = selectAndWait(fragment, watcher, SWITCH_STATES[i % SWITCH_STATES.length]);
+        }
+        report("selection_to_render_ms", samples);
+        finish(activity);
+    }
+
+    public void testCrossingToRender() throws Exception {
+        MainActivity activity = launchWithoutSnapshot();
+        assertNotNull("State tracking isn't running, is the location permission granted?",
+                activity.stateChangeListener);
+        RenderWatcher watcher = watch(activity);
+        // Does the same work as the tracker's notifier, but logs into the scratch journal
+        CrossingNotifier notifier = new CrossingNotifier(context, activity.locationLookupService,
+                TripJournal.at(scratchJournal));
+
+        crossAndWait(activity, notifier, watcher, CROSSING_FROM, CROSSING_TO);
+        crossAndWait(activity, notifier, watcher, CROSSING_TO, CROSSING_FROM);
+        long[] samples = new long[CROSSINGS];
+        for (int i = 0; i < CROSSINGS; i++) {
+            samples[i] = i % 2 == 0
+                    ? crossAndWait(activity, notifier, watcher, CROSSING_FROM, CROSSING_TO)
+                    : crossAndWait(activity, notifier, watcher, CROSSING_TO, CROSSING_FROM);
+        }
+        report("crossing_to_render_ms", samples);
+        finish(activity);
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testAllocationsPerSwitch() throws Exception {
+        MainActivity activity = launchWithoutSnapshot();
+        MainActivityFragment fragment = fragmentOf(activity);
+        RenderWatcher watcher = watch(activity);
+        for (String state : SWITCH_STATES) {
+            selectAndWait(fragment, watcher, state);
+        }
+
+        // Counted apart from the latency runs, counting slows allocation down
+        Debug.resetGlobalAllocCount();
+        Debug.resetGlobalAllocSize();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < SWITCHES; i++) {
+                selectAndWait(fragment, watcher, SWITCH_STATES[i % SWITCH_STATES.length]);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        long bytesPerSwitch = Debug.getGlobalAllocSize() / SWITCHES;
+        report("allocations_per_switch", new long[] { Debug.getGlobalAllocCount() / SWITCHES });
+        report("allocated_bytes_per_switch", new long[] { bytesPerSwitch });
+        finish(activity);
+        assertTrue("Allocated " + bytesPerSwitch + " bytes per switch, the budget is "
+                + MAX_ALLOCATED_BYTES_PER_SWITCH, bytesPerSwitch <= MAX_ALLOCATED_BYTES_PER_SWITCH);
+    }
+
+    /**
+     * @return time from sending the launch intent until state info was first on screen
+     */
+    private long launchToFirstContent() throws Exception {
+        settle();
+        long start = SystemClock.uptimeMillis();
+        MainActivity activity = launch();
+        long sinceCreate = awaitFirstContent();
+        long elapsed = activity.getLaunchUptime() - start + sinceCreate;
+        finish(activity);
+        return elapsed;
+    }
+
+    /**
+     * @return a launched activity showing the first state in the list
+     */
+    private MainActivity launchWithoutSnapshot() throws Exception {
+        settle();
+        StateSnapshot.clear(context);
+        MainActivity activity = launch();
+        awaitFirstContent();
+        return activity;
+    }
+
+    private MainActivity launch() {
+        Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.setClassName(context, MainActivity.class.getName());
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        return (MainActivity) getInstrumentation().startActivitySync(intent);
+    }
+
+    /**
+     * Wait for the background work of earlier launches, such as snapshot saves, and start the
+     * counters from zero
+     */
+    private void settle() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        // The background lane runs one job at a time, in order
+        TaskScheduler.get().submit(TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue("Timed out waiting for background work", done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Diagnostics.endSession();
+    }
+
+    /**
+     * @return the launched activity's time to first content, as measured by the app
+     */
+    private long awaitFirstContent() throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (SystemClock.uptimeMillis() < deadline) {
+            long value = Diagnostics.current().values[Diagnostics.TIME_TO_FIRST_CONTENT_MS];
+            if (value > 0) {
+                return value;
+            }
+            Thread.sleep(5);
+        }
+        fail("Timed out waiting for the first content");
+        return 0;
+    }
+
+    private void finish(final Activity activity) throws InterruptedException {
+        final CountDownLatch destroyed = new CountDownLatch(1);
+        final Application application = activity.getApplication();
+        final Application.ActivityLifecycleCallbacks callbacks = new LifecycleAdapter() {
+            @Override
+            public void onActivityDestroyed(Activity destroying) {
+                if (destroying == activity) {
+                    destroyed.countDown();
+                }
+            }
+        };
+        application.registerActivityLifecycleCallbacks(callbacks);
+        try {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    activity.finish();
+                }
+            });
+            assertTrue("Timed out waiting for the activity to finish", destroyed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            application.unregisterActivityLifecycleCallbacks(callbacks);
+        }
+    }
+
+    private static MainActivityFragment fragmentOf(MainActivity activity) {
+        return (MainActivityFragment) activity.getSupportFragmentManager().findFragmentById(R.id.fragment);
+    }
+
+    private RenderWatcher watch(final MainActivity activity) {
+        final RenderWatcher watcher = new RenderWatcher();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ((WebView) activity.findViewById(R.id.webView)).setWebViewClient(watcher);
+            }
+        });
+        return watcher;
+    }
+
+    /**
+     * @return time from the selection until the state's page had finished loading
+     */
+    private long selectAndWait(final MainActivityFragment fragment, final RenderWatcher watcher, final String state)
+            throws InterruptedException {
+        final long[] start = new long[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                watcher.expect();
+                start[0] = SystemClock.uptimeMillis();
+                fragment.select(state);
+            }
+        });
+        return watcher.await() - start[0];
+    }
+
+    /**
+     * Notify the activity's state change listener and a crossing notifier as
+     * {@link com.thenealboys.kenny.whatsreckless.location.LocationLookup} does on a crossing
+     *
+     * @return time from the crossing until the new state's page had finished loading
+     */
+    private long crossAndWait(final MainActivity activity, final CrossingNotifier notifier, final RenderWatcher watcher,
+            final String from, final String to) throws InterruptedException {
+        final long[] start = new long[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                watcher.expect();
+                start[0] = SystemClock.uptimeMillis();
+                activity.stateChangeListener.onStateLocationChanged(from, to);
+                notifier.onStateLocationChanged(from, to);
+            }
+        });
+        return watcher.await() - start[0];
+    }
+
+    private void report(String name, long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        long median = sorted[sorted.length / 2];
+        long min = sorted[0];
+        long max = sorted[sorted.length - 1];
+        Log.i(LOG_TAG, String.format("%s median=%d min=%d max=%d runs=%d", name, median, min, max, sorted.length));
+
+        Bundle results = new Bundle();
+        results.putLong(name, median);
+        results.putLong(name + "_min", min);
+        results.putLong(name + "_max", max);
+        getInstrumentation().sendStatus(STATUS_RESULT, results);
+    }
+
+    /**
+     * Notices when a page shown after a new render has finished loading. A loading message
+     * shown in between doesn't count.
+     */
+    private static class RenderWatcher extends WebViewClient {
+        private volatile long rendersBefore;
+        private volatile long finishedAt;
+        private volatile CountDownLatch finished;
+
+        /**
+         * Called on the main thread, before the render is triggered
+         */
+        void expect() {
+            rendersBefore = renders();
+            finished = new CountDownLatch(1);
+        }
+
+        /**
+         * @return uptime at which the page finished loading
+         */
+        long await() throws InterruptedException {
+            assertTrue("Timed out waiting for a render", finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            return finishedAt;
+        }
+
+        @Override
+        public void onPageFinished(WebView view, String url) {
+            CountDownLatch latch = finished;
+            if (latch != null && latch.getCount() > 0 && renders() > rendersBefore) {
+                finishedAt = SystemClock.uptimeMillis();
+                latch.countDown();
+            }
+        }
+
+        private static long renders() {
+            return Diagnostics.current().values[Diagnostics.RENDERS];
+        }
+    }
+
+    private static class LifecycleAdapter implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
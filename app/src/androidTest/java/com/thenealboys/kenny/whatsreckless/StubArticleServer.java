@@ -0,0 +1,158 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a fixed reckless driving article over HTTP on the loopback interface, so benchmark runs
+ * need no connection and always parse the same document. The article has the structure the
+ * extractor expects of the Wikipedia one: a penalties table, then a heading for every state
+ * followed by its details.
+ */
+class StubArticleServer {
+    private static final String LOG_TAG = StubArticleServer.class.getSimpleName();
+
+    /**
+     * Paragraphs per details section, enough to make the parse comparable to the real article
+     */
+    private static final int DETAIL_PARAGRAPHS = 12;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] article;
+    private final ServerSocket socket;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Thread acceptor;
+
+    /**
+     * Start serving
+     *
+     * @param states to write records for
+     * @throws IOException if no port could be bound
+     */
+    StubArticleServer(String[] states) throws IOException {
+        article = buildArticle(states);
+        socket = new ServerSocket(0, 4, InetAddress.getByName("127.0.0.1"));
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, LOG_TAG);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the URL the article is served at
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + socket.getLocalPort() + "/wiki/Reckless_driving";
+    }
+
+    /**
+     * @return requests served so far
+     */
+    int getRequestCount() {
+        return requests.get();
+    }
+
+    void shutdown() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignored, the acceptor stops either way
+        }
+        acceptor.interrupt();
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            Socket client = null;
+            try {
+                client = socket.accept();
+                serve(client);
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    Log.w(LOG_TAG, "Request failed: " + e.getMessage());
+                }
+            } finally {
+                if (client != null) {
+                    try {
+                        client.close();
+                    } catch (IOException e) {
+                        // Ignored, the response was sent or it wasn't
+                    }
+                }
+            }
+        }
+    }
+
+    private void serve(Socket client) throws IOException {
+        // Any request gets the article, only the end of the headers matters
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), UTF_8));
+        String line;
+        while ((line = in.readLine()) != null && line.length() > 0) {
+            // Skip the request line and headers
+        }
+        requests.incrementAndGet();
+
+        OutputStream out = client.getOutputStream();
+        String headers = "HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/html; charset=UTF-8\r\n"
+                + "Content-Length: " + article.length + "\r\n"
+                + "Connection: close\r\n"
+                + "\r\n";
+        out.write(headers.getBytes(UTF_8));
+        out.write(article);
+        out.flush();
+    }
+
+    private static byte[] buildArticle(String[] states) {
+        StringBuilder html = new StringBuilder("<html><head><title>Reckless driving</title></head><body><table>");
+        html.append("<tr id=\"PenaltyHeaders\"><th>State</th><th>Threshold</th><th>Fine</th><th>Jail</th></tr>");
+        for (int i = 0; i < states.length; i++) {
+            html.append("<tr id=\"").append(states[i]).append("Penalties\"><td>").append(states[i])
+                    .append("</td><td>").append(15 + i % 3 * 5).append(" mph over the limit")
+                    .append("</td><td>Up to $").append(500 + i * 50)
+                    .append("</td><td>Up to ").append(30 + i % 4 * 30).append(" days</td></tr>");
+        }
+        html.append("</table>");
+        for (String state : states) {
+            html.append("<h3><span class=\"mw-headline\" id=\"").append(state).append("\">").append(state)
+                    .append("</span></h3><div>");
+            for (int i = 0; i < DETAIL_PARAGRAPHS; i++) {
+                html.append("<p>Reckless driving in <a href=\"/wiki/").append(state).append("\">").append(state)
+                        .append("</a> is a misdemeanor punishable by a fine and points on the license.")
+                        .append("<sup class=\"reference\">[").append(i + 1).append("]</sup></p>");
+            }
+            html.append("</div>");
+        }
+        html.append("</body></html>");
+        return html.toString().getBytes(UTF_8);
+    }
+}
@@ -15,27 +15,35 @@
  */
 package com.thenealboys.kenny.whatsreckless;
 
-import android.app.Activity;
+import android.content.Context;
 import android.os.AsyncTask;
 import android.util.Log;
 
-import com.jakewharton.disklrucache.DiskLruCache;
-
-import org.jsoup.Jsoup;
-import org.jsoup.helper.StringUtil;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
-import java.io.BufferedReader;
+import com.thenealboys.kenny.whatsreckless.data.ArticleFetcher;
+import com.thenealboys.kenny.whatsreckless.data.NegativeCache;
+import com.thenealboys.kenny.whatsreckless.data.RecordCache;
+import com.thenealboys.kenny.whatsreckless.data.TaskScheduler;
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+import com.thenealboys.kenny.whatsreckless.render.WebViewStateInfoRenderer;
+import com.thenealboys.kenny.whatsreckless.rules.PenaltyRules;
+import com.thenealboys.kenny.whatsreckless.search.SearchIndex;
+import com.thenealboys.kenny.whatsreckless.sources.LawAggregator;
+import com.thenealboys.kenny.whatsreckless.sources.LawSource;
+import com.thenealboys.kenny.whatsreckless.speech.SpeechTextNormalizer;
+import com.thenealboys.kenny.whatsreckless.widget.StateWidgetProvider;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author gordysc
@@ -50,183 +58,448 @@ public class InformationAsyncTask extends AsyncTask<Void, Void, Map<String, Stri
     /**
      * The Wikipedia URL we use for collecting the data
      */
-    static final String WIKIPEDIA_URL = "http://en.wikipedia.org/wiki/Reckless_driving";
+    static final String WIKIPEDIA_URL = "https://en.wikipedia.org/wiki/Reckless_driving";
+
+    /**
+     * Where the article is actually fetched from, Wikipedia unless pointed at a local stub
+     */
+    private static volatile String articleUrl = WIKIPEDIA_URL;
 
     /**
-     * We append this suffix to the end of each location's text when parsing the Wikipedia article
+     * Application context, so a running task never keeps an Activity alive
      */
-    private static final String SUFFIX = "Penalties";
+    private final Context context;
+
     /**
-     * The document ID for the penalty headers
+     * Told about the result, held weakly so a task outliving its screen doesn't keep it alive
      */
-    private static final String PENALTY_HEADERS_ID = "PenaltyHeaders";
+    private final WeakReference<Callback> callback;
 
     /**
-     * Hard coded strings used for parsing
+     * Shared by all tasks so connections to Wikipedia get reused
      */
-    private static final String TABLE_HEADER_DELIM = "th";
-    private static final String TABLE_COLUMN_DELIM = "td";
+    private static final ArticleFetcher FETCHER = new ArticleFetcher();
 
     /**
-     * The context of this activity
+     * Held while the article is fetched into the cache, so loads that miss together fetch it once
+     * and the others read the cached copy
      */
-    private final Activity context;
+    private static final ReentrantLock ARTICLE_LOCK = new ReentrantLock();
 
     /**
-     * The Wikipedia article we're downloading
+     * Why the task returned no result, see {@link #getFailure()}
      */
-    private Document wiki;
+    public static final int FAILURE_NONE = 0;
+    public static final int FAILURE_ERROR = 1;
+    public static final int FAILURE_OFFLINE = 2;
+    public static final int FAILURE_NO_DATA = 3;
 
-    private DiskLruCache cache;
-    private static final int APP_VERSION = 1;
-    private static final int VALUE_COUNT = 1;
-    private static final int CACHE_SIZE = 1024 * 1024 * 1/*1MB*/;
+    private int failure = FAILURE_NONE;
+
+    /**
+     * Page rendered from the result, set by {@link #doInBackground(Void...)}
+     */
+    private String renderedPage;
+
+    /**
+     * Record and page from the article, shown while the other law sources are asked
+     */
+    private Map<String, String> partialResult;
+    private String partialPage;
 
     /**
      * A key to use for fetching the names of the columns in the Wikipedia article
      */
     public static final String COLUMN_NAMES = "columns";
 
+    /**
+     * Keys for the pre-normalized speech text, utterances joined by
+     * {@link SpeechTextNormalizer#UTTERANCE_SEPARATOR}
+     */
+    public static final String SPEECH_INFO = "speechInfo";
+    public static final String SPEECH_DETAILS = "speechDetails";
+
+    /**
+     * The column holding the state's details
+     */
+    public static final String DETAILS = "Details";
+
+    /**
+     * Key for the version of the law data a record was extracted from, the time the article was
+     * fetched in seconds
+     */
+    public static final String RECORD_VERSION = "recordVersion";
+
     /**
      * The state we want to asynchronously get reckless driving information for
      */
     private final String state;
 
     /**
-     * @param context of this activty
+     * Receives the task's result on the UI thread
+     */
+    public interface Callback {
+        /**
+         * The task is about to start loading the state
+         *
+         * @param state being loaded
+         */
+        void onStateInfoLoading(String state);
+
+        /**
+         * Called with the record from the article, and again with the merged record once the
+         * other {@link LawSource}s have answered
+         *
+         * @param state that was loaded
+         * @param stateInfo the state's record
+         * @param renderedPage page rendered from the record
+         */
+        void onStateInfoLoaded(String state, Map<String, String> stateInfo, String renderedPage);
+
+        /**
+         * @param state that failed to load
+         * @param failure why, one of the FAILURE_ constants
+         */
+        void onStateInfoFailed(String state, int failure);
+    }
+
+    /**
+     * @param context any context, only the application context is kept
      * @param state we want to asynchronously get reckless driving information for
+     * @param callback to deliver the result to, held weakly
      */
-    public InformationAsyncTask(Activity context, String state) {
-        this.context = context;
+    public InformationAsyncTask(Context context, String state, Callback callback) {
+        this.context = context.getApplicationContext();
         this.state = state;
-        try {
-            cache = DiskLruCache.open(context.getCacheDir(), APP_VERSION, VALUE_COUNT, CACHE_SIZE);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, e.getMessage());
-        }
+        this.callback = new WeakReference<Callback>(callback);
     }
 
     /**
-     * Helper method to parse an HTML table row and return the data as an array of {@link String} objects
-     * 
-     * @param e the table row to parse
-     * @param delimiter to use for parsing the element
-     * 
-     * @return an array of {@link String} objects of the column data in the HTML row
+     * Fetch the article from somewhere else, such as a local stub so benchmarks run offline. Any
+     * URL other than Wikipedia's is fetched even with no connection.
+     *
+     * @param url to fetch the article from, null for Wikipedia
      */
-    private String[] getDataFromColumnsForRow( Element e, String delimiter ) {
-        // Initialize a list
-        List<String> result = new ArrayList<String>();
-
-        // Get the columns from the row
-        Elements columns = e.select( delimiter );
-        if ( !columns.isEmpty() ) {
-            for ( Element column : columns ) {
-                result.add( column.text() );
-            }
-        }
-
-        // Return the list as an array
-        return result.toArray( new String[result.size()] );
+    static void setArticleUrl(String url) {
+        articleUrl = url == null ? WIKIPEDIA_URL : url;
     }
 
-    private Map<String, String> getRecklessInformation( String[] columns ) {
-        // Initialize a map that keeps data ordered by insertion
-        Map<String, String> information = new LinkedHashMap<String, String>();
-
-        // Append the suffix to the location we want to resolve from the Wikipedia document
-        String id = new StringBuilder( state ).append( SUFFIX ).toString();
+    /**
+     * @return the page rendered from the result, available once the task has completed
+     */
+    public String getRenderedPage() {
+        return renderedPage;
+    }
 
-        // Fetch the appropriate row for the location
-        Element row = wiki.getElementById( id );
+    /**
+     * @return why there is no result, one of the FAILURE_ constants; available once the task
+     * has completed
+     */
+    public int getFailure() {
+        return failure;
+    }
 
-        // Check to see if we have information to provide, if not, just return the empty map for now
-        if ( row == null ) {
-            // TODO: DO we want to throw here?
-            Log.w(LOG_TAG, context.getString(R.string.no_state_found));
-            return information;
+    /**
+     * Build one utterance per column, such as "Fine is up to $2,500."
+     *
+     * @param columns names of the columns to describe
+     * @param information the column values
+     * @return the utterances
+     */
+    public static List<String> describeColumns( String[] columns, Map<String, String> information ) {
+        List<String> utterances = new ArrayList<String>();
+        for ( String columnName : columns ) {
+            if ( DETAILS.equals( columnName ) ) {
+                continue;
+            }
+            String value = information.get( columnName );
+            value = value == null ? "unknown" : SpeechTextNormalizer.normalize( value );
+            utterances.add( columnName + " is " + value + "." );
         }
+        return utterances;
+    }
 
-        // Parse the table row for the column data
-        String[] columnData = getDataFromColumnsForRow( row, TABLE_COLUMN_DELIM );
-
-        // Materialize and return the reckless driving data from the Wikipedia document for the specified location
-        int count = 0;
-        for ( String columName : columns ) {
-            information.put( columName, columnData[count] );
-            count++;
+    @Override
+    protected Map<String, String> doInBackground( Void... params ) {
+        Map<String, String> record = load();
+        if ( record == null ) {
+            return null;
+        }
+        LawAggregator aggregator = LawAggregator.get();
+        List<LawSource> pending = aggregator.pendingFor( record );
+        if ( pending.isEmpty() || isCancelled() ) {
+            return record;
         }
 
-        // In case we want to debug
-        if ( Log.isLoggable(LOG_TAG, Log.DEBUG) ) {
-            Log.d(LOG_TAG, String.format("Column Names: %s", Arrays.toString(columns)));
-            Log.d(LOG_TAG, String.format("Columns: %s", Arrays.toString(columnData)));
+        // Show the article's record straight away, the slowest source shouldn't hold it up
+        partialResult = record;
+        partialPage = renderedPage;
+        publishProgress();
+
+        Map<String, String> merged = aggregator.aggregate( state, record, pending );
+        if ( merged != record ) {
+            renderedPage = WebViewStateInfoRenderer.toHtml( merged );
+            RecordCache cache = openCache();
+            if ( cache != null ) {
+                cache.putRecord( state, merged, renderedPage );
+                StateWidgetProvider.recordsCached( context, Collections.singleton( state ) );
+            }
         }
-        return information;
+        return merged;
     }
 
-    public static String convertStreamToString(InputStream is) throws Exception {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-        StringBuilder sb = new StringBuilder();
-        String line = null;
-        while ((line = reader.readLine()) != null) {
-            sb.append(line).append("\n");
+    /**
+     * @return the record cache opened by the warm up, null if it couldn't be opened
+     */
+    private RecordCache openCache() {
+        try {
+            // Opened by the warm up, usually long done by now
+            return Warmup.get( context ).recordCache().get();
+        } catch ( Exception e ) {//just in case the cache fails...unlikely, but if device is full or other situation
+            Log.e(LOG_TAG, e.getMessage());
+            return null;
         }
-        reader.close();
-        return sb.toString();
     }
 
-    @Override
-    protected Map<String, String> doInBackground( Void... params ) {
-        try {
-            if (cache!=null){
-                DiskLruCache.Snapshot snapshot = cache.get("wiki");
-                if(snapshot == null) {
-                    wiki = Jsoup.connect( WIKIPEDIA_URL ).get();
-                    DiskLruCache.Editor cacheEntry = cache.edit("wiki");
-                    cacheEntry.newOutputStream(0).write(wiki.html().getBytes());
-                    cacheEntry.commit();
-                    cache.flush();
-                } else {
-                    wiki = Jsoup.parse(convertStreamToString(snapshot.getInputStream(0)));
-                }
+    /**
+     * Load the state's record, from the cache if it's there, otherwise by extracting it from the
+     * article; the other states are cached in the background afterwards. Blocks, so it must not be
+     * called on the UI thread.
+     *
+     * @return the record, or null with {@link #getFailure()} saying why
+     */
+    Map<String, String> load() {
+        RecordCache cache = openCache();
+
+        // Extracted records are cached per state, so most lookups never touch the article
+        if ( cache != null ) {
+            Map<String, String> record = cache.getRecord( state );
+            if ( record != null ) {
+                Diagnostics.increment( Diagnostics.CACHE_HITS );
+                renderedPage = cache.getRenderedPage( state );
+                return record;
+            }
+        }
+        Diagnostics.increment( Diagnostics.CACHE_MISSES );
 
-            } else {//just in case the cache fails...unlikely, but if device is full or other situation
+        // Known to have nothing, don't parse the article again to find that out
+        NegativeCache negativeCache = NegativeCache.get( context );
+        if ( negativeCache.hasNoData( state ) ) {
+            failure = FAILURE_NO_DATA;
+            return null;
+        }
 
-                // Get the Wikipedia document
-                wiki = Jsoup.connect( WIKIPEDIA_URL ).get();
+        String url = articleUrl;
+        InputStream article = cache == null ? null : cache.openArticle();
+        if ( article == null ) {
+            try {
+                ARTICLE_LOCK.lockInterruptibly();
+            } catch ( InterruptedException e ) {
+                // Preempted while another load was fetching, nothing wrong with the connection
+                Thread.currentThread().interrupt();
+                failure = FAILURE_OFFLINE;
+                return null;
             }
+            try {
+                // Fetched by whoever held the lock before us
+                article = cache == null ? null : cache.openArticle();
+                if ( article == null ) {
+                    if ( isCancelled() ) {
+                        return null;
+                    }
+                    article = fetch( url, cache, negativeCache );
+                    if ( article == null ) {
+                        return null;
+                    }
+                }
+            } finally {
+                ARTICLE_LOCK.unlock();
+            }
+        }
+        if ( isCancelled() ) {
+            // A newer selection replaced this one, it does its own parse
+            close( article );
+            return null;
+        }
+
+        // Every listed state is cached from this parse, plus this one if it isn't listed
+        final List<String> names = new ArrayList<String>( Arrays.asList( context.getResources().getStringArray( R.array.states ) ) );
+        if ( !names.contains( state ) ) {
+            names.add( state );
+        }
+        String version = String.valueOf( System.currentTimeMillis() / 1000 );
+        RecordExtractor.Article parsed;
+        try {
+            parsed = RecordExtractor.parse( article, url, version );
         } catch ( Exception e ) {
             Log.e(LOG_TAG, e.getMessage());
+            failure = FAILURE_ERROR;
             return null;
         }
 
-        // Grab the headers for the penalties table
-        Element headerRow = wiki.getElementById( PENALTY_HEADERS_ID );
-
         // Are the headers defined? Did we find them?
-        if ( headerRow == null ) {
+        if ( parsed == null ) {
             // TODO: Where should we point them here to resolving the issue?
             String msg = context.getString( R.string.invalid_wikipedia_headers );
             // Log the error and return
             Log.e(LOG_TAG, msg);
+            failure = FAILURE_ERROR;
+            return null;
+        }
+
+        if ( cache != null ) {
+            List<String> table = new ArrayList<String>( Arrays.asList( parsed.columns ) );
+            table.add( DETAILS );
+            table.add( COLUMN_NAMES );
+            table.add( RECORD_VERSION );
+            table.add( PenaltyRules.RECORD_KEY );
+            cache.putTable( table );
+        }
+
+        // The state asked for is extracted and rendered first
+        final Map<String, String> result = parsed.extract( state );
+        if ( result != null ) {
+            renderedPage = WebViewStateInfoRenderer.toHtml( result );
+            if ( cache != null ) {
+                cache.putRecord( state, result, renderedPage );
+                StateWidgetProvider.recordsCached( context, Collections.singleton( state ) );
+            }
+        } else {
+            negativeCache.putNoData( state );
+        }
+        if ( cache != null ) {
+            cacheOtherStates( context, cache, negativeCache, parsed, names, state, result );
+        }
+        if ( result == null ) {
+            failure = FAILURE_NO_DATA;
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Fetch the article, into the cache if there is one. Called with {@link #ARTICLE_LOCK} held.
+     *
+     * @return the article, or null with {@link #getFailure()} saying why
+     */
+    private InputStream fetch( String url, RecordCache cache, NegativeCache negativeCache ) {
+        // Fail fast rather than wake the radio for a fetch that is bound to fail
+        if ( WIKIPEDIA_URL.equals( url ) && negativeCache.isOffline() ) {
+            failure = FAILURE_OFFLINE;
+            return null;
+        }
+        InputStream article = null;
+        try {
+            if ( cache != null ) {
+                try {
+                    // Stream the Wikipedia document straight into the cache and parse it from there
+                    FETCHER.fetch( url, cache.articleSink() );
+                    article = cache.openArticle();
+                } catch ( ArticleFetcher.SinkUnavailableException e ) {
+                    // Says nothing about the connection, fetch into memory instead
+                    Log.w( LOG_TAG, e.getMessage() );
+                }
+            }
+            if ( article == null ) {
+                // Get the Wikipedia document into memory
+                ArticleFetcher.ByteArraySink sink = new ArticleFetcher.ByteArraySink();
+                FETCHER.fetch( url, sink );
+                article = new ByteArrayInputStream( sink.toByteArray() );
+            }
+        } catch ( IOException e ) {
+            Log.e(LOG_TAG, e.getMessage());
+            // A background load preempted by foreground work says nothing about the connection
+            if ( !Thread.currentThread().isInterrupted() ) {
+                negativeCache.putNetworkFailure();
+            }
+            failure = FAILURE_OFFLINE;
             return null;
         }
+        negativeCache.clearNetworkFailures();
+        negativeCache.clearNoData();
+        return article;
+    }
+
+    private static void close( InputStream in ) {
+        try {
+            in.close();
+        } catch ( IOException e ) {
+            // Ignored, only read from
+        }
+    }
+
+    /**
+     * The article is parsed anyway, so extract and cache the other states while we're at it. The
+     * records are extracted here, so only they and not the parsed article are kept by the
+     * background job that renders them and writes them with a single flush of the cache.
+     *
+     * @param context told the widget about the newly cached states
+     * @param cache to fill
+     * @param negativeCache told about states the article has nothing for
+     * @param parsed article
+     * @param names of the states to cache, the one asked for included
+     * @param requested the state asked for
+     * @param result the record of the state asked for, already cached, or null
+     */
+    private static void cacheOtherStates( final Context context, final RecordCache cache, final NegativeCache negativeCache,
+            RecordExtractor.Article parsed, List<String> names, String requested, Map<String, String> result ) {
+        final Map<String, Map<String, String>> records = new LinkedHashMap<String, Map<String, String>>();
+        final Map<String, Map<String, String>> others = new LinkedHashMap<String, Map<String, String>>();
+        for ( String name : names ) {
+            if ( name.equals( requested ) ) {
+                records.put( name, result );
+                continue;
+            }
+            Map<String, String> record = parsed.extract( name );
+            records.put( name, record );
+            if ( record == null ) {
+                negativeCache.putNoData( name );
+                continue;
+            }
+            others.put( name, record );
+        }
+        TaskScheduler.get().submit( TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                Map<String, String> pages = new HashMap<String, String>();
+                for ( Map.Entry<String, Map<String, String>> other : others.entrySet() ) {
+                    pages.put( other.getKey(), WebViewStateInfoRenderer.toHtml( other.getValue() ) );
+                }
+                cache.putRecords( others, pages );
+                StateWidgetProvider.recordsCached( context, others.keySet() );
 
-        // Set the defined column names
-        String[] columns = getDataFromColumnsForRow( headerRow, TABLE_HEADER_DELIM );
-        // Display the reckless driving information
-        Map<String, String> result = getRecklessInformation(columns);
+                // Lets the search screen answer "which states..." without touching the article
+                cache.putSearchIndex( SearchIndex.build( records ).encode() );
+            }
+        } );
+    }
 
-        // Fetch the Details for the state
-        ArrayList colList = new ArrayList(Arrays.asList(columns));
-        colList.add("Details");
-        Element stateDetails = wiki.getElementById(state).parent().nextElementSibling();
-        result.put("Details", stateDetails.html());
+    @Override
+    protected void onPreExecute() {
+        Callback target = callback.get();
+        if ( target != null ) {
+            target.onStateInfoLoading( state );
+        }
+    }
 
-        // Add the column names to use for generating the table
-        result.put( COLUMN_NAMES, StringUtil.join( colList, "," ) );
+    @Override
+    protected void onProgressUpdate( Void... values ) {
+        Callback target = callback.get();
+        if ( target != null ) {
+            target.onStateInfoLoaded( state, partialResult, partialPage );
+        }
+    }
 
-        return result;
+    @Override
+    protected void onPostExecute( Map<String, String> result ) {
+        Callback target = callback.get();
+        if ( target == null ) {
+            return;
+        }
+        if ( result == null ) {
+            target.onStateInfoFailed( state, failure );
+        } else {
+            target.onStateInfoLoaded( state, result, renderedPage );
+        }
     }
 }
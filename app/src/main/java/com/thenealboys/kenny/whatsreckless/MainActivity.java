@@ -4,6 +4,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.location.Location;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
@@ -12,23 +13,39 @@ import android.support.v7.widget.Toolbar;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.ViewTreeObserver;
 import android.widget.Toast;
 
+import com.thenealboys.kenny.whatsreckless.data.TaskScheduler;
+import com.thenealboys.kenny.whatsreckless.diagnostics.DiagnosticsActivity;
+import com.thenealboys.kenny.whatsreckless.journal.TripJournal;
+import com.thenealboys.kenny.whatsreckless.journal.TripsActivity;
 import com.thenealboys.kenny.whatsreckless.location.LocationLookup;
 import com.thenealboys.kenny.whatsreckless.location.StateChangeListener;
+import com.thenealboys.kenny.whatsreckless.search.SearchActivity;
+import com.thenealboys.kenny.whatsreckless.rules.SpeedMonitor;
 import com.thenealboys.kenny.whatsreckless.setttings.SettingsActivity;
+import com.thenealboys.kenny.whatsreckless.widget.StateWidgetProvider;
 
 public class MainActivity extends AppCompatActivity {
     /**
-     * Service used for looking up the user's location
+     * Service used for looking up the user's location, shared through the {@link StateTracker}
      */
     LocationLookup locationLookupService = null;
     StateChangeListener stateChangeListener = null;
+    SpeedMonitor speedMonitor = null;
     private static final int RESULT_SETTINGS = 1;
+    private static final int RESULT_SEARCH = 2;
     SharedPreferences prefs;
 
+    /**
+     * Uptime when this activity was created, used for measuring time to first content
+     */
+    private long launchUptime;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        launchUptime = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -53,23 +70,106 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        // Hold back location, TTS and data loading until the first frame is drawn
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                content.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFirstDraw();
+                    }
+                });
+                return true;
+            }
+        });
+    }
 
+    /**
+     * Runs once the first frame has been drawn
+     */
+    private void onFirstDraw() {
+        if (isFinishing()) {
+            return;
+        }
+        StateTracker tracker = StateTracker.get(this);
+        // Crossings are announced by the tracker, with or without this screen
+        tracker.update();
         if ( locationLookupService == null ) {
             if (prefs.getBoolean("current_location_switch", true)){
-                locationLookupService = new LocationLookup( this );
+                locationLookupService = tracker.acquireLookup();
             }
         }
-        if (locationLookupService != null && stateChangeListener == null && prefs.getBoolean("state_tracking_switch", false)){
+        if (locationLookupService != null && stateChangeListener == null && tracker.isTracking()){
             stateChangeListener = new StateChangeListener(){
 
                 @Override
                 public void onStateLocationChanged(String oldState, String newState) {
                     MainActivityFragment frag = (MainActivityFragment)getSupportFragmentManager().findFragmentById (R.id.fragment);
-                    frag.renderStateInfo(newState);;
+                    frag.renderStateInfo(newState, TaskScheduler.CROSSING);
                 }
             };
             locationLookupService.registerStateChangeListener(stateChangeListener);
         }
+
+        if (locationLookupService != null && speedMonitor == null && prefs.getBoolean("speed_warning_switch", false)){
+            speedMonitor = new SpeedMonitor(this, new SpeedMonitor.Listener() {
+                @Override
+                public void onRecklessSpeed(String state, float speedMph, float thresholdMph) {
+                    Toast.makeText(MainActivity.this, getString(R.string.reckless_speed_warning, speedMph, state, thresholdMph), Toast.LENGTH_LONG).show();
+                }
+            }, Float.parseFloat(prefs.getString("posted_limit", "65")));
+            locationLookupService.registerFixListener(speedMonitor);
+        }
+
+        MainActivityFragment frag = (MainActivityFragment)getSupportFragmentManager().findFragmentById (R.id.fragment);
+        frag.onFirstDraw();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (locationLookupService != null && speedMonitor != null) {
+            locationLookupService.unregisterFixListener(speedMonitor);
+            speedMonitor = null;
+        }
+        if (locationLookupService != null && stateChangeListener != null) {
+            locationLookupService.unregisterStateChangeListener(stateChangeListener);
+            stateChangeListener = null;
+        }
+        if (locationLookupService != null) {
+            // The lookup outlives this screen only while tracking needs it
+            StateTracker.get(this).releaseLookup();
+            locationLookupService = null;
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        final TripJournal journal = TripJournal.get(this);
+        TaskScheduler.get().submit(TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                journal.flush();
+            }
+        });
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == RESULT_SEARCH && resultCode == RESULT_OK && data != null) {
+            MainActivityFragment frag = (MainActivityFragment)getSupportFragmentManager().findFragmentById (R.id.fragment);
+            frag.select(data.getStringExtra(SearchActivity.EXTRA_STATE));
+        }
+    }
+
+    public long getLaunchUptime() {
+        return launchUptime;
     }
 
     @Override
@@ -94,12 +194,27 @@ public class MainActivity extends AppCompatActivity {
                 Intent i = new Intent(this, SettingsActivity.class);
                 startActivityForResult(i, RESULT_SETTINGS);
                 return true;
+            case R.id.title_diagnostics:
+                startActivity(new Intent(this, DiagnosticsActivity.class));
+                return true;
+            case R.id.title_search:
+                startActivityForResult(new Intent(this, SearchActivity.class), RESULT_SEARCH);
+                return true;
+            case R.id.title_trips:
+                startActivity(new Intent(this, TripsActivity.class));
+                return true;
             case R.id.title_read_state_info:
                 frag.readInfo();
                 return true;
             case R.id.title_read_state_info_details:
                 frag.readDetails();
                 return true;
+            case R.id.title_skip_reading:
+                frag.skipReading();
+                return true;
+            case R.id.title_stop_reading:
+                frag.stopReading();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -108,7 +223,7 @@ public class MainActivity extends AppCompatActivity {
 
         MainActivityFragment frag = (MainActivityFragment)getSupportFragmentManager().findFragmentById (R.id.fragment);
         if ( locationLookupService == null ) {
-            locationLookupService = new LocationLookup( this );
+            locationLookupService = StateTracker.get(this).acquireLookup();
         }
         Location loc = locationLookupService.getCurrentLocation();
 
@@ -117,6 +232,7 @@ public class MainActivity extends AppCompatActivity {
             String state = locationLookupService.getCurrentState();
             if ( state != null ) {
                 frag.select(state);
+                StateWidgetProvider.push(this, state);
             } else {
                 Toast.makeText(this,getString(R.string.unable_to_find_state_for_location, loc.getLatitude(), loc.getLongitude()), Toast.LENGTH_LONG).show();
             }
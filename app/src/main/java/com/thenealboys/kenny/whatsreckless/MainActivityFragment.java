@@ -1,30 +1,50 @@
 package com.thenealboys.kenny.whatsreckless;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.os.AsyncTask;
+import android.preference.PreferenceManager;
 import android.speech.tts.TextToSpeech;
 import android.support.v4.app.Fragment;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewStub;
 import android.webkit.WebView;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.thenealboys.kenny.whatsreckless.data.NegativeCache;
+import com.thenealboys.kenny.whatsreckless.data.StateSnapshot;
+import com.thenealboys.kenny.whatsreckless.data.TaskScheduler;
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+import com.thenealboys.kenny.whatsreckless.location.StateResolver;
+import com.thenealboys.kenny.whatsreckless.render.NativeStateInfoRenderer;
+import com.thenealboys.kenny.whatsreckless.render.StateInfoRenderer;
+import com.thenealboys.kenny.whatsreckless.render.WebViewStateInfoRenderer;
+import com.thenealboys.kenny.whatsreckless.speech.SpeechQueue;
+import com.thenealboys.kenny.whatsreckless.speech.SpeechTextNormalizer;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.Locale;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * A placeholder fragment containing a simple view.
  */
-public class MainActivityFragment extends Fragment {
+public class MainActivityFragment extends Fragment implements InformationAsyncTask.Callback {
 
     /**
      * A tag used for logging purposes
@@ -33,8 +53,54 @@ public class MainActivityFragment extends Fragment {
 
     private  Spinner spinner;
     private String[] states;
+
+    /**
+     * Spinner position of each {@link StateResolver} id, -1 for states not in the list
+     */
+    private int[] positionById;
     private Map<String, String> currentStateInfo;
-    private TextToSpeech textToSpeech;
+    private SpeechQueue speechQueue;
+
+    /**
+     * Renderer currently showing the state info, chosen by the render_mode preference. The
+     * unused renderer's view is never inflated, so the native mode never creates a WebView.
+     */
+    private StateInfoRenderer renderer;
+    private String renderMode;
+    private WebViewStateInfoRenderer webViewRenderer;
+    private NativeStateInfoRenderer nativeRenderer;
+
+    /**
+     * State shown from the startup snapshot, its spinner selection doesn't need a refetch
+     */
+    private String snapshotState;
+
+    /**
+     * State selected before the first frame was drawn, loaded once {@link #onFirstDraw()} runs
+     */
+    private String pendingState;
+    private boolean firstDrawDone = false;
+    private boolean firstContentReported = false;
+
+    /**
+     * Task loading the selected state, only its result is shown
+     */
+    private InformationAsyncTask loadingTask;
+
+    /**
+     * State that couldn't load for lack of a connection, loaded again once back online
+     */
+    private String offlineState;
+
+    private final NegativeCache.OnlineListener onlineListener = new NegativeCache.OnlineListener() {
+        @Override
+        public void onOnline() {
+            if (offlineState != null && isAdded()) {
+                renderStateInfo(offlineState);
+            }
+        }
+    };
+
     public MainActivityFragment() {
     }
 
@@ -44,6 +110,36 @@ public class MainActivityFragment extends Fragment {
 
         Resources res = getResources();
         states = res.getStringArray(R.array.states);
+        positionById = new int[StateResolver.count()];
+        Arrays.fill(positionById, -1);
+        for (int i = 0; i < states.length; i++) {
+            int id = StateResolver.resolve(states[i]);
+            if (id != StateResolver.UNKNOWN) {
+                positionById[id] = i;
+            }
+        }
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
+        renderer = null;
+        webViewRenderer = null;
+        nativeRenderer = null;
+        useRenderer(view, prefs.getString("render_mode", StateInfoRenderer.MODE_WEBVIEW));
+
+        // Show the last viewed state straight away, the snapshot is tiny so reading it here is
+        // cheaper than leaving the first frame empty
+        StrictMode.ThreadPolicy oldPolicy = StrictMode.allowThreadDiskReads();
+        StateSnapshot snapshot;
+        try {
+            snapshot = StateSnapshot.load(getActivity());
+        } finally {
+            StrictMode.setThreadPolicy(oldPolicy);
+        }
+        if (snapshot != null) {
+            snapshotState = snapshot.getState();
+            currentStateInfo = snapshot.getStateInfo();
+            renderer.showStateInfo(snapshot.getStateInfo(), snapshot.getRenderedPage());
+            Diagnostics.increment(Diagnostics.RENDERS);
+        }
 
         // Spinner element
         spinner = (Spinner) view.findViewById(R.id.spinner);
@@ -53,13 +149,23 @@ public class MainActivityFragment extends Fragment {
 
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                renderStateInfo(states[position]);
+                String state = states[position];
+                if (state.equals(snapshotState)) {
+                    // Already showing it from the snapshot
+                    snapshotState = null;
+                    return;
+                }
+                snapshotState = null;
+                if (!firstDrawDone) {
+                    pendingState = state;
+                    return;
+                }
+                renderStateInfo(state);
             }
 
             @Override
             public void onNothingSelected(AdapterView<?> parent) {
-                final WebView webview = (WebView) getView().findViewById(R.id.webView);
-                webview.loadData("<html></html>", "text/html","UTF-8");
+                renderer.showMessage("");
             }
         });
 
@@ -67,119 +173,292 @@ public class MainActivityFragment extends Fragment {
         ArrayAdapter<String> dataAdapter = new ArrayAdapter<String>(getActivity(), android.R.layout.simple_spinner_item, states);
         dataAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         spinner.setAdapter(dataAdapter);
+        if (snapshotState != null) {
+            int index = positionOf(snapshotState);
+            if (index != -1) {
+                spinner.setSelection(index, false);
+            }
+        }
         return view;
     }
 
+    /**
+     * Called by {@link MainActivity} once the first frame is on screen. Work that isn't needed to
+     * show that frame (data loading) is held back until now.
+     */
+    public void onFirstDraw() {
+        firstDrawDone = true;
+        if (currentStateInfo != null) {
+            reportFirstContent("snapshot");
+        }
+        if (pendingState != null) {
+            renderStateInfo(pendingState);
+            pendingState = null;
+        }
+    }
+
+    /**
+     * Logs the time from launch until state info was first on screen
+     *
+     * @param source where the content came from
+     */
+    private void reportFirstContent(String source) {
+        if (firstContentReported || !(getActivity() instanceof MainActivity)) {
+            return;
+        }
+        firstContentReported = true;
+        long elapsed = SystemClock.uptimeMillis() - ((MainActivity) getActivity()).getLaunchUptime();
+        Log.i(LOG_TAG, String.format("Time to first content (%s): %d ms", source, elapsed));
+        Diagnostics.set(Diagnostics.TIME_TO_FIRST_CONTENT_MS, elapsed);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+
+        // The render mode may have been changed in the settings
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
+        String mode = prefs.getString("render_mode", StateInfoRenderer.MODE_WEBVIEW);
+        if (!mode.equals(renderMode)) {
+            useRenderer(getView(), mode);
+            if (currentStateInfo != null) {
+                renderer.showStateInfo(currentStateInfo, null);
+            }
+        }
+
+        // The connection may have come back while another screen was showing
+        NegativeCache negativeCache = NegativeCache.get(getActivity());
+        negativeCache.addOnlineListener(onlineListener);
+        if (offlineState != null && !negativeCache.isOffline()) {
+            renderStateInfo(offlineState);
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        NegativeCache.get(getActivity()).removeOnlineListener(onlineListener);
+    }
+
+    /**
+     * Switch to the renderer for the given mode, inflating its view on first use
+     *
+     * @param view the fragment's root view
+     * @param mode one of the render_mode preference values
+     */
+    private void useRenderer(View view, String mode) {
+        if (renderer != null) {
+            renderer.setVisible(false);
+        }
+        if (StateInfoRenderer.MODE_NATIVE.equals(mode)) {
+            if (nativeRenderer == null) {
+                View list = ((ViewStub) view.findViewById(R.id.stateInfoListStub)).inflate();
+                nativeRenderer = new NativeStateInfoRenderer(list);
+            }
+            renderer = nativeRenderer;
+        } else {
+            if (webViewRenderer == null) {
+                WebView webview = (WebView) ((ViewStub) view.findViewById(R.id.webViewStub)).inflate();
+                webViewRenderer = new WebViewStateInfoRenderer(webview);
+            }
+            renderer = webViewRenderer;
+        }
+        renderer.setVisible(true);
+        renderMode = mode;
+    }
+
     public void select(String state){
-        int index = Arrays.asList(states).indexOf(state);
+        int index = positionOf(state);
         if (index != -1){
             spinner.setSelection(index);
         }
     }
 
-    public void renderStateInfo(String state){
+    /**
+     * @param state in any form {@link StateResolver} knows
+     * @return the state's spinner position, -1 if it isn't in the list
+     */
+    private int positionOf(String state) {
+        int id = StateResolver.resolve(state);
+        return id == StateResolver.UNKNOWN ? -1 : positionById[id];
+    }
+
+    public void renderStateInfo(final String state){
+        renderStateInfo(state, TaskScheduler.RENDER);
+    }
 
-        final WebView webview = (WebView) getView().findViewById(R.id.webView);
+    /**
+     * @param state to render
+     * @param lane of the {@link TaskScheduler} to load it on
+     */
+    public void renderStateInfo(final String state, int lane){
+        // A newer selection wins, the old task still fills the cache but shows nothing
+        offlineState = null;
+        if (loadingTask != null) {
+            loadingTask.cancel(false);
+        }
         try {
             // Get the reckless driving information from Wikipedia
-            AsyncTask asyncTask = new InformationAsyncTask( getActivity(), state ){
-                @Override
-                protected void onPostExecute(Map<String, String> result) {
-
-                    if (result == null){
-                        webview.loadData("<html>Failed</html>", "text/html", "UTF-8");
-                        return;
-                    }
-                    currentStateInfo = result;
-                    StringBuffer sb = new StringBuffer();
-                    sb.append("<html><table>");
-
-                    // Iteratively add each row to the table header to the row
-                    String[] columnNames = result.get( InformationAsyncTask.COLUMN_NAMES ).split( "," );
-                    for ( String columnName : columnNames ) {
-                        sb
-                                .append("<tr><td>")
-                                .append(columnName)
-                                .append("</td><td>")
-                                .append(result.get(columnName) == null ? "" : result.get(columnName))
-                                .append("</td></tr>");
-                    }
-                    sb.append("</table></html>");
-                    webview.loadData(sb.toString(), "text/html", "UTF-8");
-                }
-
-                /*
-                 * (non-Javadoc)
-                 *
-                 * @see android.os.AsyncTask#onPreExecute()
-                 */
-                @Override
-                protected void onPreExecute() {
-
-                    webview.loadData("<html>Loading state info...</html>", "text/html","UTF-8");
-                }
-            }.execute();
+            loadingTask = new InformationAsyncTask(getActivity(), state, this);
+            loadingTask.executeOnExecutor(TaskScheduler.get().executor(lane));
         } catch ( Exception e ) {
             Log.e( LOG_TAG, e.getMessage() );
         }
     }
 
-    private void initTTS(){
+    @Override
+    public void onStateInfoLoading(String state) {
+        if (!isAdded()) {
+            return;
+        }
+        renderer.showMessage(getString(R.string.loading_state_info));
+    }
 
-        if (textToSpeech == null){
-            textToSpeech = new TextToSpeech(getContext(), new TextToSpeech.OnInitListener() {
-                @Override
-                public void onInit(int status) {
-                    if(status != TextToSpeech.ERROR) {
-                        textToSpeech.setLanguage(Locale.US);
-                    } else {
-                        String msg = getString(R.string.tts_init_error, status );
-                        Log.e( LOG_TAG, msg);
+    @Override
+    public void onStateInfoLoaded(String state, Map<String, String> result, String page) {
+        // The task is kept, it may still deliver the record merged with the other law sources
+        if (!isAdded()) {
+            return;
+        }
+        currentStateInfo = result;
+        renderer.showStateInfo(result, page);
+        Diagnostics.increment(Diagnostics.RENDERS);
+        reportFirstContent("fetch");
 
-                        Toast.makeText(getContext(), msg, Toast.LENGTH_LONG).show();
-                    }
-                }
-            });
+        // Remember what we're showing for the next cold start
+        final StateSnapshot snapshot = new StateSnapshot(state, result, page);
+        final Context appContext = getActivity().getApplicationContext();
+        TaskScheduler.get().submit(TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                snapshot.save(appContext);
+            }
+        });
+    }
+
+    @Override
+    public void onStateInfoFailed(String state, int failure) {
+        loadingTask = null;
+        if (!isAdded()) {
+            return;
         }
+        switch (failure) {
+            case InformationAsyncTask.FAILURE_OFFLINE:
+                offlineState = state;
+                renderer.showMessage(getString(R.string.loading_state_info_offline));
+                break;
+            case InformationAsyncTask.FAILURE_NO_DATA:
+                renderer.showMessage(getString(R.string.loading_state_info_no_data, state));
+                break;
+            default:
+                renderer.showMessage(getString(R.string.loading_state_info_failed));
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (loadingTask != null) {
+            loadingTask.cancel(false);
+            loadingTask = null;
+        }
+    }
+
+    /**
+     * Play utterances on the TTS engine started by the {@link Warmup}. If it is still starting,
+     * wait for it off the UI thread and play once it's ready.
+     *
+     * @param utterances to play
+     */
+    private void speak(final List<String> utterances) {
+        if (speechQueue != null) {
+            speechQueue.play(utterances);
+            return;
+        }
+        final Future<TextToSpeech> engine = Warmup.get(getContext()).textToSpeech();
+        final Context appContext = getContext().getApplicationContext();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                TextToSpeech textToSpeech = null;
+                try {
+                    textToSpeech = engine.get();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, e.getMessage());
+                }
+                final TextToSpeech ready = textToSpeech;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (ready == null) {
+                            Toast.makeText(appContext, appContext.getString(R.string.tts_init_error, TextToSpeech.ERROR), Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        if (speechQueue == null) {
+                            speechQueue = new SpeechQueue(ready);
+                        }
+                        speechQueue.play(utterances);
+                    }
+                });
+            }
+        });
     }
+
     public void readInfo() {
-        initTTS();
         if (currentStateInfo == null){
             Toast.makeText(getContext(), R.string.location_unassigned, Toast.LENGTH_LONG).show();
             return;
         }
 
-        StringBuffer sb = new StringBuffer();
-
-        // Iteratively add each row to the table header to the row
-        String[] columnNames = currentStateInfo.get( InformationAsyncTask.COLUMN_NAMES ).split( "," );
-        for ( String columnName : columnNames ) {
-            if (columnName != "Details") {
-                sb
-                        .append(columnName)
-                        .append(" is ")
-                        .append(currentStateInfo.get(columnName) == null ? " unknown." : currentStateInfo.get(columnName));
-            }
+        String speech = currentStateInfo.get(InformationAsyncTask.SPEECH_INFO);
+        if (speech == null) {
+            // Record predates the speech text, build it now
+            String[] columnNames = currentStateInfo.get( InformationAsyncTask.COLUMN_NAMES ).split( "," );
+            speak(InformationAsyncTask.describeColumns(columnNames, currentStateInfo));
+        } else {
+            speak(SpeechTextNormalizer.splitStored(speech));
         }
-
-        textToSpeech.speak(sb.toString(), TextToSpeech.QUEUE_FLUSH, null);
     }
 
     public void readDetails() {
-        initTTS();
         if (currentStateInfo == null){
             Toast.makeText(getContext(), R.string.info_not_loaded, Toast.LENGTH_LONG).show();
             return;
         }
 
-        // Iteratively add each row to the table header to the row
-        ArrayList columnNames =  new ArrayList(Arrays.asList(currentStateInfo.get(InformationAsyncTask.COLUMN_NAMES).split(",")));
+        List<String> utterances = new ArrayList<String>();
+        String speech = currentStateInfo.get(InformationAsyncTask.SPEECH_DETAILS);
+        if (speech != null) {
+            utterances.addAll(SpeechTextNormalizer.splitStored(speech));
+        } else if (currentStateInfo.get(InformationAsyncTask.DETAILS) != null) {
+            // Record predates the speech text, build it now
+            utterances.addAll(SpeechTextNormalizer.toUtterances(currentStateInfo.get(InformationAsyncTask.DETAILS)));
+        }
 
-        if(columnNames.contains("Details") && columnNames.contains("State")) {
-            String string = "Details for " + currentStateInfo.get("State") + ": " + currentStateInfo.get("Details");
-            textToSpeech.speak(string, TextToSpeech.QUEUE_FLUSH, null);
+        if (!utterances.isEmpty() && currentStateInfo.get("State") != null) {
+            utterances.add(0, "Details for " + currentStateInfo.get("State") + ".");
+            speak(utterances);
         } else {
-            textToSpeech.speak("No details available", TextToSpeech.QUEUE_FLUSH, null);
+            speak(Arrays.asList(getString(R.string.no_details_available)));
+        }
+    }
+
+    /**
+     * Stop reading aloud
+     */
+    public void stopReading() {
+        if (speechQueue != null) {
+            speechQueue.stop();
+        }
+    }
+
+    /**
+     * Skip to the next sentence being read aloud
+     */
+    public void skipReading() {
+        if (speechQueue != null) {
+            speechQueue.skip();
         }
     }
 }
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import android.util.Log;
+
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+import com.thenealboys.kenny.whatsreckless.location.StateResolver;
+import com.thenealboys.kenny.whatsreckless.render.DetailsSanitizer;
+import com.thenealboys.kenny.whatsreckless.rules.PenaltyRuleCompiler;
+import com.thenealboys.kenny.whatsreckless.rules.PenaltyRules;
+import com.thenealboys.kenny.whatsreckless.speech.SpeechTextNormalizer;
+
+import org.jsoup.Jsoup;
+import org.jsoup.helper.StringUtil;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the state records from the Wikipedia article. The parsed document only lives as long
+ * as the {@link Article} it is parsed into, no extracted record refers back into the DOM.
+ */
+final class RecordExtractor {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = RecordExtractor.class.getSimpleName();
+
+    /**
+     * We append this suffix to the end of each location's text when parsing the Wikipedia article
+     */
+    private static final String SUFFIX = "Penalties";
+    /**
+     * The document ID for the penalty headers
+     */
+    private static final String PENALTY_HEADERS_ID = "PenaltyHeaders";
+
+    /**
+     * Hard coded strings used for parsing
+     */
+    private static final String TABLE_HEADER_DELIM = "th";
+    private static final String TABLE_COLUMN_DELIM = "td";
+
+    /**
+     * A parsed article, records are extracted from it one state at a time so the state being
+     * waited for needn't wait on the others
+     */
+    static final class Article {
+        /**
+         * Names of the penalty columns
+         */
+        final String[] columns;
+
+        private final Document wiki;
+        private final String version;
+
+        private Article(Document wiki, String[] columns, String version) {
+            this.wiki = wiki;
+            this.columns = columns;
+            this.version = version;
+        }
+
+        /**
+         * @param state to extract
+         * @return the state's record, or null if the article has nothing for the state
+         */
+        Map<String, String> extract(String state) {
+            return extractState(wiki, state, columns, version);
+        }
+    }
+
+    private RecordExtractor() {
+    }
+
+    /**
+     * Parse the article, leaving the records to be extracted as they're needed
+     *
+     * @param article stream of the article, closed when done
+     * @param baseUri the article was fetched from
+     * @param version of the law data
+     * @return the parsed article, null if it has no penalties table
+     * @throws IOException if the article can't be read
+     */
+    static Article parse(InputStream article, String baseUri, String version) throws IOException {
+        Document wiki;
+        long start = Diagnostics.start();
+        try {
+            // A null charset lets Jsoup take it from the document, falling back to UTF-8
+            wiki = Jsoup.parse( article, null, baseUri );
+        } finally {
+            article.close();
+        }
+        Diagnostics.addElapsed( Diagnostics.PARSE_TIME_MS, start );
+        Diagnostics.increment( Diagnostics.PARSES );
+
+        // Grab the headers for the penalties table
+        Element headerRow = wiki.getElementById( PENALTY_HEADERS_ID );
+
+        // Are the headers defined? Did we find them?
+        if ( headerRow == null ) {
+            return null;
+        }
+
+        // Set the defined column names
+        return new Article( wiki, getDataFromColumnsForRow( headerRow, TABLE_HEADER_DELIM ), version );
+    }
+
+    /**
+     * Helper method to parse an HTML table row and return the data as an array of {@link String} objects
+     * 
+     * @param e the table row to parse
+     * @param delimiter to use for parsing the element
+     * 
+     * @return an array of {@link String} objects of the column data in the HTML row
+     */
+    private static String[] getDataFromColumnsForRow( Element e, String delimiter ) {
+        // Initialize a list
+        List<String> result = new ArrayList<String>();
+
+        // Get the columns from the row
+        Elements columns = e.select( delimiter );
+        if ( !columns.isEmpty() ) {
+            for ( Element column : columns ) {
+                result.add( column.text() );
+            }
+        }
+
+        // Return the list as an array
+        return result.toArray( new String[result.size()] );
+    }
+
+    /**
+     * @param wiki the parsed article
+     * @param ids to try in turn, nulls are skipped
+     * @return the first element found, null if none are
+     */
+    private static Element findById( Document wiki, String... ids ) {
+        for ( String id : ids ) {
+            Element element = id == null ? null : wiki.getElementById( id );
+            if ( element != null ) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> getRecklessInformation( Document wiki, String state, String[] columns ) {
+        // Initialize a map that keeps data ordered by insertion
+        Map<String, String> information = new LinkedHashMap<String, String>();
+
+        // Fetch the appropriate row for the location, its id is the state's name or anchor with a
+        // suffix
+        String anchor = StateResolver.anchorOf( StateResolver.resolve( state ) );
+        Element row = findById( wiki, state + SUFFIX, anchor == null ? null : anchor + SUFFIX );
+
+        // Check to see if we have information to provide, if not, just return the empty map for now
+        if ( row == null ) {
+            Log.w(LOG_TAG, "No penalties row for " + state);
+            return information;
+        }
+
+        // Parse the table row for the column data
+        String[] columnData = getDataFromColumnsForRow( row, TABLE_COLUMN_DELIM );
+
+        // Materialize and return the reckless driving data from the Wikipedia document for the specified location
+        int count = 0;
+        for ( String columName : columns ) {
+            information.put( columName, count < columnData.length ? columnData[count] : "" );
+            count++;
+        }
+
+        // In case we want to debug
+        if ( Log.isLoggable(LOG_TAG, Log.DEBUG) ) {
+            Log.d(LOG_TAG, String.format("Column Names: %s", Arrays.toString(columns)));
+            Log.d(LOG_TAG, String.format("Columns: %s", Arrays.toString(columnData)));
+        }
+        return information;
+    }
+
+    /**
+     * Extract a state's record from the article
+     *
+     * @param wiki the parsed article
+     * @param state to extract
+     * @param columns names of the penalty columns
+     * @param version of the law data
+     * @return the record, or null if the article has nothing for the state
+     */
+    private static Map<String, String> extractState( Document wiki, String state, String[] columns, String version ) {
+        // Display the reckless driving information
+        Map<String, String> result = getRecklessInformation(wiki, state, columns);
+
+        // Fetch the Details for the state
+        ArrayList<String> colList = new ArrayList<String>(Arrays.asList(columns));
+        colList.add(InformationAsyncTask.DETAILS);
+        Element anchor = findById(wiki, StateResolver.anchorOf(StateResolver.resolve(state)), state);
+        Element stateDetails = anchor == null ? null : anchor.parent().nextElementSibling();
+        if (stateDetails != null) {
+            // Sanitized once here, so rendering never has to deal with the article's markup
+            result.put(InformationAsyncTask.DETAILS, DetailsSanitizer.sanitize(stateDetails));
+
+            // Prepare the text for reading aloud now, rather than on every playback
+            result.put(InformationAsyncTask.SPEECH_DETAILS, SpeechTextNormalizer.join(SpeechTextNormalizer.toUtterances(stateDetails)));
+        } else if (result.isEmpty()) {
+            // Neither a penalties row nor details
+            return null;
+        }
+        result.put(InformationAsyncTask.SPEECH_INFO, SpeechTextNormalizer.join(InformationAsyncTask.describeColumns(columns, result)));
+
+        // Compile the penalty text into numbers once, so speed checks don't parse anything
+        result.put(PenaltyRules.RECORD_KEY, PenaltyRuleCompiler.compile(columns, result).encode());
+
+        // Add the column names to use for generating the table
+        result.put( InformationAsyncTask.COLUMN_NAMES, StringUtil.join( colList, "," ) );
+        result.put( InformationAsyncTask.RECORD_VERSION, version );
+
+        return result;
+    }
+}
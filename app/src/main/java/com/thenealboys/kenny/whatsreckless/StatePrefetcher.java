@@ -0,0 +1,179 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.thenealboys.kenny.whatsreckless.data.RecordCache;
+import com.thenealboys.kenny.whatsreckless.data.TaskScheduler;
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+import com.thenealboys.kenny.whatsreckless.location.FixListener;
+import com.thenealboys.kenny.whatsreckless.location.StateAdjacency;
+import com.thenealboys.kenny.whatsreckless.location.StateBounds;
+
+/**
+ * Warms the record of the state the driver is about to enter, so the render on crossing finds it
+ * in memory. Close to a border, the direction of travel picks the likely neighbour from the
+ * {@link StateAdjacency} graph and its record, rendered page and speech text are loaded on the
+ * {@link TaskScheduler#BACKGROUND} lane. Prefetches are capped per hour, so driving along a
+ * border can't keep the radio busy.
+ */
+public class StatePrefetcher implements FixListener {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = StatePrefetcher.class.getSimpleName();
+
+    /**
+     * How far ahead to look for a border, about ten minutes at highway speed
+     */
+    private static final double LOOKAHEAD_KM = 20;
+
+    /**
+     * Fixes closer together than this give no usable direction
+     */
+    private static final float MIN_MOVE_METERS = 200;
+
+    /**
+     * Slower than this, about 20 mph, the direction of travel says little about the next state
+     */
+    private static final float MIN_SPEED_MPS = 9;
+
+    static final int MAX_PREFETCHES_PER_HOUR = 6;
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    /**
+     * The same state isn't prefetched again for this long
+     */
+    private static final long REPEAT_MS = 30 * 60 * 1000;
+
+    private final Context context;
+
+    /**
+     * Only touched on the location lookup thread
+     */
+    private Location previous;
+    private String lastPrefetched;
+    private long lastPrefetchedAt;
+
+    /**
+     * Elapsed realtime of the last prefetches, oldest at nextSlot, 0 for unused slots
+     */
+    private final long[] prefetchTimes = new long[MAX_PREFETCHES_PER_HOUR];
+    private int nextSlot = 0;
+
+    /**
+     * @param context any context, only the application context is kept
+     */
+    public StatePrefetcher(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public void onFix(Location location, String state) {
+        if (state == null) {
+            previous = location;
+            return;
+        }
+
+        // The fix's own bearing when moving fast enough, otherwise the way it moved since the last one
+        float bearing;
+        if (location.hasBearing() && location.hasSpeed()) {
+            if (location.getSpeed() < MIN_SPEED_MPS) {
+                previous = location;
+                return;
+            }
+            bearing = location.getBearing();
+        } else if (previous != null && previous.distanceTo(location) >= MIN_MOVE_METERS) {
+            long elapsedMs = location.getTime() - previous.getTime();
+            if (elapsedMs <= 0 || previous.distanceTo(location) * 1000 / elapsedMs < MIN_SPEED_MPS) {
+                previous = location;
+                return;
+            }
+            bearing = previous.bearingTo(location);
+        } else {
+            if (previous == null) {
+                previous = location;
+            }
+            return;
+        }
+        previous = location;
+
+        if (!StateBounds.isNearBorder(state, location.getLatitude(), location.getLongitude(), LOOKAHEAD_KM)) {
+            return;
+        }
+        final String next = StateAdjacency.predictNext(state, location.getLatitude(), location.getLongitude(), bearing, LOOKAHEAD_KM);
+        long now = SystemClock.elapsedRealtime();
+        if (next == null || (next.equals(lastPrefetched) && now - lastPrefetchedAt < REPEAT_MS)) {
+            return;
+        }
+        if (!takeBudget(now)) {
+            Diagnostics.increment(Diagnostics.PREFETCHES_THROTTLED);
+            return;
+        }
+        lastPrefetched = next;
+        lastPrefetchedAt = now;
+        Diagnostics.increment(Diagnostics.PREFETCHES);
+        TaskScheduler.get().submit(new TaskScheduler.PreemptibleJob() {
+            @Override
+            public boolean run() {
+                warm(next);
+                // A load cut short by foreground work is worth another go
+                return !Thread.currentThread().isInterrupted();
+            }
+        });
+    }
+
+    /**
+     * @param now elapsed realtime
+     * @return true if a prefetch is allowed, it's then counted against the budget
+     */
+    private boolean takeBudget(long now) {
+        long oldest = prefetchTimes[nextSlot];
+        if (oldest != 0 && now - oldest < HOUR_MS) {
+            return false;
+        }
+        prefetchTimes[nextSlot] = now;
+        nextSlot = (nextSlot + 1) % prefetchTimes.length;
+        return true;
+    }
+
+    /**
+     * Runs on the background lane
+     *
+     * @param state to load
+     */
+    private void warm(String state) {
+        RecordCache cache;
+        try {
+            cache = Warmup.get(context).recordCache().get();
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "No record cache to prefetch into: " + e.getMessage());
+            return;
+        }
+        if (cache.getRecord(state) != null) {
+            // The record now sits in the cache's memory, reading the page brings its file into the
+            // file system cache
+            cache.getRenderedPage(state);
+            return;
+        }
+        // Never extracted, load it the way a render would
+        new InformationAsyncTask(context, state, null).load();
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.thenealboys.kenny.whatsreckless.location.LocationLookup;
+import com.thenealboys.kenny.whatsreckless.notification.CrossingNotifier;
+import com.thenealboys.kenny.whatsreckless.widget.StateWidgetUpdater;
+
+/**
+ * Process wide owner of the {@link LocationLookup} and of the listeners that follow crossings with
+ * no screen open: the {@link CrossingNotifier}, the {@link StatePrefetcher} and the home screen
+ * widget's {@link StateWidgetUpdater}. They are registered
+ * once, when state tracking is switched on, however often the Activity is recreated, and
+ * {@link StateTrackingService} keeps the process running while tracking is on.
+ * <p>
+ * The lookup is shared: screens {@link #acquireLookup()} it and {@link #releaseLookup()} it when
+ * they go, and it is released for good once neither a screen nor tracking needs it. Everything
+ * here is called on the main thread.
+ */
+public class StateTracker implements SharedPreferences.OnSharedPreferenceChangeListener {
+    static final String PREF_CURRENT_LOCATION = "current_location_switch";
+    static final String PREF_STATE_TRACKING = "state_tracking_switch";
+
+    private static StateTracker instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+
+    private LocationLookup lookup;
+    private int lookupUsers = 0;
+
+    /**
+     * Only set while tracking
+     */
+    private CrossingNotifier crossingNotifier;
+    private StatePrefetcher statePrefetcher;
+    private StateWidgetUpdater widgetUpdater;
+
+    private StateTracker(Context context) {
+        this.context = context;
+        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        // Held strongly by the instance, the preferences only keep a weak reference
+        prefs.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /**
+     * @param context any context, only the application context is kept
+     * @return the process wide tracker
+     */
+    public static synchronized StateTracker get(Context context) {
+        if (instance == null) {
+            instance = new StateTracker(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Start or stop tracking to match the settings
+     */
+    public void update() {
+        boolean wanted = prefs.getBoolean(PREF_CURRENT_LOCATION, true) && prefs.getBoolean(PREF_STATE_TRACKING, false);
+        if (wanted && crossingNotifier == null) {
+            LocationLookup tracked = acquireLookup();
+
+            // Announce the crossing straight from the cached records
+            crossingNotifier = new CrossingNotifier(context, tracked);
+            tracked.registerStateChangeListener(crossingNotifier);
+
+            // Load the state we're heading into before we get there, at the fix rate tracking already uses
+            statePrefetcher = new StatePrefetcher(context);
+            tracked.registerFixListener(statePrefetcher, false);
+
+            // Keep the widget current while the app is closed
+            widgetUpdater = new StateWidgetUpdater(context);
+            tracked.registerFixListener(widgetUpdater, false);
+
+            context.startService(new Intent(context, StateTrackingService.class));
+        } else if (!wanted && crossingNotifier != null) {
+            lookup.unregisterStateChangeListener(crossingNotifier);
+            lookup.unregisterFixListener(statePrefetcher);
+            lookup.unregisterFixListener(widgetUpdater);
+            crossingNotifier = null;
+            statePrefetcher = null;
+            widgetUpdater = null;
+            releaseLookup();
+
+            context.stopService(new Intent(context, StateTrackingService.class));
+        }
+    }
+
+    /**
+     * @return whether crossings are being followed
+     */
+    public boolean isTracking() {
+        return crossingNotifier != null;
+    }
+
+    /**
+     * Get the shared lookup, starting it if nobody else is using it. Every call must be matched by
+     * a {@link #releaseLookup()}.
+     *
+     * @return the lookup
+     */
+    public LocationLookup acquireLookup() {
+        if (lookup == null) {
+            lookup = new LocationLookup(context);
+        }
+        lookupUsers++;
+        return lookup;
+    }
+
+    /**
+     * Done with the lookup, it's released once nobody is using it
+     */
+    public void releaseLookup() {
+        if (lookupUsers == 0) {
+            return;
+        }
+        if (--lookupUsers == 0) {
+            lookup.release();
+            lookup = null;
+        }
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (PREF_CURRENT_LOCATION.equals(key) || PREF_STATE_TRACKING.equals(key)) {
+            update();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * Keeps the process, and with it the {@link StateTracker}, running while state tracking is on, so
+ * crossings are still announced after the app is closed. Sticky, so tracking comes back by itself
+ * if the system kills the process.
+ */
+public class StateTrackingService extends Service {
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        StateTracker tracker = StateTracker.get(this);
+        tracker.update();
+        if (!tracker.isTracking()) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import android.content.Context;
+import android.location.Geocoder;
+import android.os.Process;
+import android.speech.tts.TextToSpeech;
+import android.util.Log;
+
+import com.thenealboys.kenny.whatsreckless.data.RecordCache;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the slow to initialize engines on a background thread as soon as the process starts, in
+ * the order they're usually needed: the record cache index, the TTS engine, then the geocoder.
+ * Consumers get futures, so nothing on the UI thread waits on disk or engine startup. A TTS
+ * engine that failed to start is tried again the next time it's asked for.
+ */
+public class Warmup {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = Warmup.class.getSimpleName();
+
+    /**
+     * Longest we wait for the TTS engine to bind before moving on to the geocoder
+     */
+    private static final long TTS_INIT_TIMEOUT_MS = 5000;
+
+    /**
+     * How long the warm up thread is kept around for a retry once it runs out of work
+     */
+    private static final long THREAD_KEEP_ALIVE_MS = 30 * 1000;
+
+    private static Warmup instance;
+
+    private final Context context;
+    private final ThreadPoolExecutor executor;
+    private final Future<RecordCache> recordCache;
+    private Future<TextToSpeech> textToSpeech;
+    private final Future<Geocoder> geocoder;
+
+    private Warmup(final Context context) {
+        this.context = context;
+        // A single thread runs the tasks one after the other, in priority order
+        executor = new ThreadPoolExecutor(1, 1, THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+        // Idle once warmed up, so let the thread go until a retry needs it
+        executor.allowCoreThreadTimeOut(true);
+
+        recordCache = executor.submit(new Callable<RecordCache>() {
+            @Override
+            public RecordCache call() throws Exception {
+                return RecordCache.get(context);
+            }
+        });
+
+        textToSpeech = startTextToSpeech();
+
+        geocoder = executor.submit(new Callable<Geocoder>() {
+            @Override
+            public Geocoder call() throws Exception {
+                return new Geocoder(context, Locale.getDefault());
+            }
+        });
+    }
+
+    /**
+     * Queue binding and initializing the TTS engine
+     *
+     * @return the engine once it's ready, null if it failed or took too long to initialize
+     */
+    private Future<TextToSpeech> startTextToSpeech() {
+        return executor.submit(new Callable<TextToSpeech>() {
+            @Override
+            public TextToSpeech call() throws Exception {
+                final CountDownLatch ready = new CountDownLatch(1);
+                final int[] result = { TextToSpeech.ERROR };
+                TextToSpeech tts = new TextToSpeech(context, new TextToSpeech.OnInitListener() {
+                    @Override
+                    public void onInit(int status) {
+                        result[0] = status;
+                        ready.countDown();
+                    }
+                });
+                if (!ready.await(TTS_INIT_TIMEOUT_MS, TimeUnit.MILLISECONDS) || result[0] == TextToSpeech.ERROR) {
+                    Log.e(LOG_TAG, context.getString(R.string.tts_init_error, result[0]));
+                    tts.shutdown();
+                    return null;
+                }
+                tts.setLanguage(Locale.US);
+                return tts;
+            }
+        });
+    }
+
+    /**
+     * Start warming up, if it hasn't been started already
+     *
+     * @param context any context, only the application context is kept
+     * @return the process wide warm up
+     */
+    public static synchronized Warmup get(Context context) {
+        if (instance == null) {
+            instance = new Warmup(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * @return the opened record cache; fails if the cache couldn't be opened
+     */
+    public Future<RecordCache> recordCache() {
+        return recordCache;
+    }
+
+    /**
+     * @return the initialized TTS engine, null if it failed to initialize. If the last attempt
+     * failed, the engine is started again.
+     */
+    public synchronized Future<TextToSpeech> textToSpeech() {
+        if (failed(textToSpeech)) {
+            textToSpeech = startTextToSpeech();
+        }
+        return textToSpeech;
+    }
+
+    /**
+     * @return whether the engine's initialization has finished without an engine
+     */
+    private static boolean failed(Future<TextToSpeech> engine) {
+        if (!engine.isDone()) {
+            return false;
+        }
+        try {
+            return engine.get() == null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return a geocoder for the default locale
+     */
+    public Future<Geocoder> geocoder() {
+        return geocoder;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import android.app.Application;
+import android.os.StrictMode;
+import android.preference.PreferenceManager;
+
+import com.thenealboys.kenny.whatsreckless.diagnostics.SessionRecorder;
+import com.thenealboys.kenny.whatsreckless.sources.AssetLawSource;
+import com.thenealboys.kenny.whatsreckless.sources.LawAggregator;
+
+/**
+ * Starts the background warm up as soon as the process does, registers the law sources and
+ * records a diagnostics session each time the app goes to the background
+ */
+public class WhatsRecklessApplication extends Application {
+    /**
+     * Name the bundled laws are shown under, and the assets directory holding them
+     */
+    private static final String BUNDLED_LAWS_SOURCE = "WhatsReckless";
+    private static final String BUNDLED_LAWS_PATH = "laws";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        if (BuildConfig.DEBUG) {
+            // Anything touching disk or network on the UI thread should show up in the log
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectAll()
+                    .penaltyLog()
+                    .build());
+            StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                    .detectAll()
+                    .penaltyLog()
+                    .build());
+        }
+
+        // Starts loading the preferences on the framework's own thread, so the first read of
+        // them from the UI thread doesn't have to wait on disk
+        PreferenceManager.getDefaultSharedPreferences(this);
+
+        Warmup.get(this);
+
+        registerActivityLifecycleCallbacks(new SessionRecorder(this));
+
+        // Laws the article doesn't list, bundled so they merge in with no connection
+        LawAggregator.get().register(new AssetLawSource(BUNDLED_LAWS_SOURCE, getAssets(), BUNDLED_LAWS_PATH));
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.data;
+
+import android.util.Log;
+
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fetches articles over HTTP with gzip, connect and read timeouts and a bounded number of retries
+ * with jittered exponential backoff. The body is streamed straight into a {@link Sink}, it is
+ * never held in memory. Connections are reused through {@link HttpURLConnection}'s keep-alive
+ * pool, which is why the body is always read to the end and the stream closed rather than the
+ * connection disconnected.
+ */
+public class ArticleFetcher {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = ArticleFetcher.class.getSimpleName();
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10 * 1000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 15 * 1000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_BACKOFF_MS = 500;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Redirects followed before giving up, more than any sane site chains
+     */
+    private static final int MAX_REDIRECTS = 5;
+
+    /**
+     * Where a fetched body is written. Each attempt gets a fresh stream, so a body cut short by a
+     * failed attempt is never mixed with the next one.
+     */
+    public interface Sink {
+        /**
+         * @return a stream for the body of a new attempt
+         * @throws IOException if the stream can't be opened
+         */
+        OutputStream open() throws IOException;
+
+        /**
+         * The body was written completely and the stream closed
+         *
+         * @throws IOException if it can't be kept
+         */
+        void commit() throws IOException;
+
+        /**
+         * The attempt failed, discard whatever was written
+         */
+        void abort();
+    }
+
+    /**
+     * An HTTP error status
+     */
+    public static class HttpStatusException extends IOException {
+        private final int status;
+
+        public HttpStatusException(int status, String url) {
+            super("HTTP " + status + " fetching " + url);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * The sink can't take a body right now, another attempt wouldn't change that
+     */
+    public static class SinkUnavailableException extends IOException {
+        public SinkUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Keeps the body in memory, for when there is no cache to stream into
+     */
+    public static class ByteArraySink implements Sink {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public OutputStream open() {
+            bytes.reset();
+            return bytes;
+        }
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void abort() {
+            bytes.reset();
+        }
+
+        public byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final Random random = new Random();
+
+    public ArticleFetcher() {
+        this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS, DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MS);
+    }
+
+    /**
+     * @param connectTimeoutMs connect timeout for each attempt
+     * @param readTimeoutMs read timeout for each attempt
+     * @param maxAttempts attempts before giving up, at least 1
+     * @param backoffMs base of the exponential backoff between attempts
+     */
+    public ArticleFetcher(int connectTimeoutMs, int readTimeoutMs, int maxAttempts, long backoffMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = backoffMs;
+    }
+
+    /**
+     * Fetch a URL into a sink, retrying failures that may be transient: I/O errors, timeouts,
+     * server errors and 429s. Other HTTP errors, and a {@link SinkUnavailableException}, fail
+     * straight away. Redirects are followed, across protocols too, which
+     * {@link HttpURLConnection} won't do by itself.
+     *
+     * @param url to fetch
+     * @param sink for the body
+     * @return the size of the (decompressed) body
+     * @throws IOException from the last attempt if every attempt failed
+     */
+    public long fetch(String url, Sink sink) throws IOException {
+        IOException failure = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            if (attempt > 0) {
+                backoff(attempt);
+            }
+            try {
+                return attempt(url, sink);
+            } catch (HttpStatusException e) {
+                if (!isRetryable(e.getStatus())) {
+                    throw e;
+                }
+                failure = e;
+            } catch (SinkUnavailableException e) {
+                throw e;
+            } catch (InterruptedIOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                // A timeout, worth another try
+                failure = e;
+            } catch (IOException e) {
+                failure = e;
+            }
+            Log.w(LOG_TAG, String.format("Attempt %d of %d failed: %s", attempt + 1, maxAttempts, failure.getMessage()));
+        }
+        throw failure;
+    }
+
+    private long attempt(String url, Sink sink) throws IOException {
+        URL location = new URL(url);
+        HttpURLConnection connection;
+        int status;
+        int redirects = 0;
+        while (true) {
+            connection = (HttpURLConnection) location.openConnection();
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout(readTimeoutMs);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+
+            status = connection.getResponseCode();
+            String target = connection.getHeaderField("Location");
+            if (!isRedirect(status) || target == null) {
+                break;
+            }
+            drainRedirect(connection);
+            if (++redirects > MAX_REDIRECTS) {
+                throw new HttpStatusException(status, location.toString());
+            }
+            // Location may be relative to the URL that answered
+            location = new URL(location, target);
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            drain(connection.getErrorStream());
+            throw new HttpStatusException(status, location.toString());
+        }
+
+        CountingInputStream wire = new CountingInputStream(connection.getInputStream());
+        InputStream body = wire;
+        OutputStream out = null;
+        boolean committed = false;
+        try {
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                body = new GZIPInputStream(wire);
+            }
+            out = sink.open();
+            long total = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            out.close();
+            out = null;
+            sink.commit();
+            committed = true;
+            return total;
+        } finally {
+            Diagnostics.add(Diagnostics.NETWORK_BYTES, wire.count);
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignored, the attempt is being aborted anyway
+                }
+            }
+            if (!committed) {
+                sink.abort();
+            }
+            body.close();
+        }
+    }
+
+    private void backoff(int attempt) throws InterruptedIOException {
+        // Full jitter: anywhere between 0 and base * 2^(attempt - 1)
+        long ceiling = backoffMs << (attempt - 1);
+        long delay = (long) (random.nextDouble() * ceiling);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during backoff");
+        }
+    }
+
+    static boolean isRedirect(int status) {
+        return status == HttpURLConnection.HTTP_MOVED_PERM
+                || status == HttpURLConnection.HTTP_MOVED_TEMP
+                || status == HttpURLConnection.HTTP_SEE_OTHER
+                || status == 307 || status == 308;
+    }
+
+    static boolean isRetryable(int status) {
+        return status >= 500 || status == 429;
+    }
+
+    /**
+     * A redirect's body comes through the input stream, the error stream is only for 4xx and up
+     */
+    private static void drainRedirect(HttpURLConnection connection) {
+        try {
+            drain(connection.getInputStream());
+        } catch (IOException e) {
+            // Ignored, the connection just won't be reused
+        }
+    }
+
+    private static void drain(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // Reading to the end lets the connection be reused
+            }
+            in.close();
+        } catch (IOException e) {
+            // Ignored, the connection just won't be reused
+        }
+    }
+
+    /**
+     * Counts the bytes read off the wire, before any decompression
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.data;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Remembers lookups that failed, so repeating them fails fast locally instead of reparsing the
+ * article or waking the radio again. Two kinds of failure are kept, each with an expiry:
+ * <ul>
+ * <li>states the article has no data for, kept for {@link #NO_DATA_TTL_MS}</li>
+ * <li>network failures, backed off exponentially from {@link #OFFLINE_MIN_BACKOFF_MS} up to
+ * {@link #OFFLINE_MAX_BACKOFF_MS} and cleared as soon as connectivity comes back</li>
+ * </ul>
+ * {@link OnlineListener}s are told when fetching is worth trying again.
+ */
+public class NegativeCache {
+
+    static final long NO_DATA_TTL_MS = 24 * 60 * 60 * 1000L;
+    static final long OFFLINE_MIN_BACKOFF_MS = 15 * 1000L;
+    static final long OFFLINE_MAX_BACKOFF_MS = 5 * 60 * 1000L;
+
+    /**
+     * Told on the UI thread when the connection comes back or a network backoff ends
+     */
+    public interface OnlineListener {
+        void onOnline();
+    }
+
+    private static NegativeCache instance;
+
+    private final ConnectivityManager connectivity;
+
+    /**
+     * Expiry (elapsed realtime) of the no data entries, by state
+     */
+    private final Map<String, Long> noData = new HashMap<String, Long>();
+
+    /**
+     * Consecutive network failures and when the current backoff ends
+     */
+    private int networkFailures = 0;
+    private long offlineUntil = 0;
+
+    private final List<OnlineListener> onlineListeners = new CopyOnWriteArrayList<OnlineListener>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable backoffEnded = new Runnable() {
+        @Override
+        public void run() {
+            if (!isOffline()) {
+                notifyOnline();
+            }
+        }
+    };
+
+    /**
+     * @param connectivity asked whether there is a connection
+     */
+    NegativeCache(ConnectivityManager connectivity) {
+        this.connectivity = connectivity;
+    }
+
+    private NegativeCache(Context context) {
+        this((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE));
+
+        // Getting a connection back ends the backoff straight away
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (isConnected()) {
+                    clearNetworkFailures();
+                    notifyOnline();
+                }
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * @param context any context, only the application context is kept
+     * @return the process wide negative cache
+     */
+    public static synchronized NegativeCache get(Context context) {
+        if (instance == null) {
+            instance = new NegativeCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * @param state to check
+     * @return true if the article was recently found to have no data for the state
+     */
+    public synchronized boolean hasNoData(String state) {
+        Long expiry = noData.get(state);
+        if (expiry == null) {
+            return false;
+        }
+        if (expiry <= now()) {
+            noData.remove(state);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param state the article has no data for
+     */
+    public synchronized void putNoData(String state) {
+        noData.put(state, now() + NO_DATA_TTL_MS);
+    }
+
+    /**
+     * Clear the no data entries, for when the article has been refetched
+     */
+    public synchronized void clearNoData() {
+        noData.clear();
+    }
+
+    /**
+     * @return true if there is no connection or a recent fetch failed and its backoff hasn't
+     * ended yet
+     */
+    public synchronized boolean isOffline() {
+        return !isConnected() || now() < offlineUntil;
+    }
+
+    /**
+     * A fetch failed, back off for twice as long as the last time
+     */
+    public synchronized void putNetworkFailure() {
+        long backoff = Math.min(OFFLINE_MAX_BACKOFF_MS, OFFLINE_MIN_BACKOFF_MS << Math.min(networkFailures, 16));
+        networkFailures++;
+        offlineUntil = now() + backoff;
+        handler.removeCallbacks(backoffEnded);
+        handler.postDelayed(backoffEnded, backoff);
+    }
+
+    /**
+     * A fetch succeeded or the connection came back
+     */
+    public synchronized void clearNetworkFailures() {
+        networkFailures = 0;
+        offlineUntil = 0;
+    }
+
+    /**
+     * @param listener to tell when fetching is worth trying again
+     */
+    public void addOnlineListener(OnlineListener listener) {
+        onlineListeners.add(listener);
+    }
+
+    public void removeOnlineListener(OnlineListener listener) {
+        onlineListeners.remove(listener);
+    }
+
+    private void notifyOnline() {
+        for (OnlineListener listener : onlineListeners) {
+            listener.onOnline();
+        }
+    }
+
+    boolean isConnected() {
+        NetworkInfo network = connectivity.getActiveNetworkInfo();
+        return network != null && network.isConnected();
+    }
+
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+}
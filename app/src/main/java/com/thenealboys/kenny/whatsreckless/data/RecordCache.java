@@ -0,0 +1,495 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.data;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Disk cache of the extracted per-state records. Each state's entry holds three values, all in the
+ * {@link RecordCodec} format: the record itself, the page rendered from it and its speech text.
+ * The column names shared by every record are kept once in a string table entry, and the raw
+ * article is kept in its own entry so the other states can be extracted without refetching it.
+ */
+public class RecordCache {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = RecordCache.class.getSimpleName();
+
+    /**
+     * Version of the cache layout. {@link DiskLruCache} wipes the cache when this doesn't match
+     * the version it was created with, which is how older layouts are migrated.
+     */
+    static final int APP_VERSION = 8;
+
+    /**
+     * Values kept for each entry
+     */
+    private static final int VALUE_COUNT = 3;
+    private static final int RECORD = 0;
+    private static final int RENDERED_PAGE = 1;
+    private static final int SPEECH = 2;
+
+    /**
+     * Bounds for the cache budget, which is otherwise 1% of the free space
+     */
+    private static final long MIN_CACHE_SIZE = 2 * 1024 * 1024/*2MB*/;
+    private static final long MAX_CACHE_SIZE = 16 * 1024 * 1024/*16MB*/;
+
+    /**
+     * Number of decoded records kept in memory, enough for a state and all of its neighbors
+     */
+    private static final int MEMORY_RECORDS = 12;
+
+    private static final String DIRECTORY = "records";
+    private static final String TABLE_KEY = "columns";
+    private static final String ARTICLE_KEY = "article";
+    private static final String SEARCH_INDEX_KEY = "search_index";
+
+    /**
+     * Files left in the cache dir by the first version, which cached the whole article there
+     */
+    private static final String[] LEGACY_FILES = { "journal", "journal.tmp", "journal.bkp", "wiki.0", "wiki.0.tmp" };
+
+    private static RecordCache instance;
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * Only replaced by {@link #clear()}
+     */
+    private volatile DiskLruCache cache;
+
+    /**
+     * Recently used records, already decoded
+     */
+    private final LruCache<String, Map<String, String>> memory = new LruCache<String, Map<String, String>>(MEMORY_RECORDS);
+
+    /**
+     * The shared string table, loaded lazily
+     */
+    private List<String> table;
+
+    private RecordCache(File directory, long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        cache = DiskLruCache.open(directory, APP_VERSION, VALUE_COUNT, maxSize);
+    }
+
+    /**
+     * Open the process wide cache, should not be called on the UI thread
+     *
+     * @param context used to locate the cache dir
+     * @return the cache
+     * @throws IOException if the cache can't be opened
+     */
+    public static synchronized RecordCache get(Context context) throws IOException {
+        if (instance == null) {
+            File cacheDir = context.getApplicationContext().getCacheDir();
+            for (String name : LEGACY_FILES) {
+                File legacy = new File(cacheDir, name);
+                if (legacy.exists() && !legacy.delete()) {
+                    Log.w(LOG_TAG, "Unable to delete " + legacy);
+                }
+            }
+            instance = new RecordCache(new File(cacheDir, DIRECTORY), budgetFor(cacheDir));
+        }
+        return instance;
+    }
+
+    /**
+     * Delete everything cached, the article included, so every state is loaded afresh. For
+     * benchmarks that fill the cache from a stub article.
+     *
+     * @throws IOException if the emptied cache can't be opened again
+     */
+    public synchronized void clear() throws IOException {
+        memory.evictAll();
+        table = null;
+        cache.delete();
+        cache = DiskLruCache.open(directory, APP_VERSION, VALUE_COUNT, maxSize);
+    }
+
+    /**
+     * Size the cache from the free space, so small or full devices don't lose space to it and the
+     * records never get evicted on devices with room to spare
+     *
+     * @param dir the cache lives in
+     * @return the budget in bytes
+     */
+    static long budgetFor(File dir) {
+        return Math.max(MIN_CACHE_SIZE, Math.min(MAX_CACHE_SIZE, dir.getUsableSpace() / 100));
+    }
+
+    /**
+     * DiskLruCache keys are limited to [a-z0-9_-]{1,64}
+     */
+    static String keyFor(String state) {
+        String key = "state_" + state.toLowerCase(Locale.US).replaceAll("[^a-z0-9]", "_");
+        return key.length() > 64 ? key.substring(0, 64) : key;
+    }
+
+    /**
+     * @param state to look up
+     * @return the state's record including its speech text, or null if it isn't cached. The
+     * record is shared, callers must not modify it.
+     */
+    public synchronized Map<String, String> getRecord(String state) {
+        String key = keyFor(state);
+        Map<String, String> cached = memory.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            List<String> table = getTable();
+            if (table == null) {
+                return null;
+            }
+            snapshot = cache.get(key);
+            if (snapshot == null) {
+                return null;
+            }
+            Map<String, String> record = RecordCodec.decodeRecord(readFully(snapshot.getInputStream(RECORD)), table);
+            List<String> speech = RecordCodec.decodeTable(readFully(snapshot.getInputStream(SPEECH)));
+            if (speech.size() == 2) {
+                record.put(InformationAsyncTask.SPEECH_INFO, speech.get(0));
+                record.put(InformationAsyncTask.SPEECH_DETAILS, speech.get(1));
+            }
+            memory.put(key, record);
+            return record;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Discarding unreadable record for " + state + ": " + e.getMessage());
+            remove(key);
+            return null;
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * @param state to look up
+     * @return the page rendered from the state's record, or null if it isn't cached
+     */
+    public synchronized String getRenderedPage(String state) {
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            snapshot = cache.get(keyFor(state));
+            return snapshot == null ? null : RecordCodec.decodeText(readFully(snapshot.getInputStream(RENDERED_PAGE)));
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read page for " + state + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * Replace the string table the records are encoded against. Records written against another
+     * table fail to decode and are treated as missing.
+     *
+     * @param strings the new table
+     */
+    public synchronized void putTable(List<String> strings) {
+        if (strings.equals(table)) {
+            return;
+        }
+        try {
+            write(TABLE_KEY, RecordCodec.encodeTable(strings), new byte[0], new byte[0]);
+            table = new ArrayList<String>(strings);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to write string table: " + e.getMessage());
+            table = null;
+        }
+    }
+
+    /**
+     * @param state the record is for
+     * @param record the state's record, speech text included
+     * @param renderedPage the page rendered from the record
+     */
+    public synchronized void putRecord(String state, Map<String, String> record, String renderedPage) {
+        if (table == null) {
+            Log.w(LOG_TAG, "No string table, not caching " + state);
+            return;
+        }
+        putRecordLocked(state, record, renderedPage, indexTable());
+        flush();
+    }
+
+    /**
+     * Cache many records with a single flush of the journal, rather than one per record
+     *
+     * @param records by state, speech text included; states with a null record are skipped
+     * @param renderedPages the pages rendered from the records, by state
+     */
+    public synchronized void putRecords(Map<String, Map<String, String>> records, Map<String, String> renderedPages) {
+        if (table == null) {
+            Log.w(LOG_TAG, "No string table, not caching " + records.size() + " records");
+            return;
+        }
+        Map<String, Integer> index = indexTable();
+        for (Map.Entry<String, Map<String, String>> entry : records.entrySet()) {
+            if (entry.getValue() != null) {
+                putRecordLocked(entry.getKey(), entry.getValue(), renderedPages.get(entry.getKey()), index);
+            }
+        }
+        flush();
+    }
+
+    private Map<String, Integer> indexTable() {
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int i = 0; i < table.size(); i++) {
+            index.put(table.get(i), i);
+        }
+        return index;
+    }
+
+    /**
+     * Write a record without flushing the journal
+     */
+    private void putRecordLocked(String state, Map<String, String> record, String renderedPage, Map<String, Integer> index) {
+
+        // The speech text goes in its own value
+        Map<String, String> stored = new LinkedHashMap<String, String>(record);
+        List<String> speech = new ArrayList<String>(2);
+        speech.add(nonNull(stored.remove(InformationAsyncTask.SPEECH_INFO)));
+        speech.add(nonNull(stored.remove(InformationAsyncTask.SPEECH_DETAILS)));
+
+        String key = keyFor(state);
+        memory.remove(key);
+        try {
+            writeEntry(key,
+                    RecordCodec.encodeRecord(stored, table, index),
+                    RecordCodec.encodeText(renderedPage),
+                    RecordCodec.encodeTable(speech));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to cache record for " + state + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param index the encoded search index over all states
+     */
+    public synchronized void putSearchIndex(byte[] index) {
+        try {
+            write(SEARCH_INDEX_KEY, index, new byte[0], new byte[0]);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to cache search index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the encoded search index, null if it isn't cached
+     */
+    public synchronized byte[] getSearchIndex() {
+        try {
+            DiskLruCache.Snapshot snapshot = cache.get(SEARCH_INDEX_KEY);
+            if (snapshot == null) {
+                return null;
+            }
+            try {
+                return readFully(snapshot.getInputStream(RECORD));
+            } finally {
+                snapshot.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read search index: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Open the cached article. The stream must be closed by the caller.
+     *
+     * @return the raw article, or null if it isn't cached
+     */
+    public InputStream openArticle() {
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            snapshot = cache.get(ARTICLE_KEY);
+            if (snapshot == null) {
+                return null;
+            }
+            final DiskLruCache.Snapshot open = snapshot;
+            InputStream in = new FilterInputStream(RecordCodec.begin(snapshot.getInputStream(0))) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    open.close();
+                }
+            };
+            snapshot = null;
+            return in;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Discarding unreadable article: " + e.getMessage());
+            remove(ARTICLE_KEY);
+            return null;
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * @return a sink that streams a fetched article into the cache, compressed as it is written
+     */
+    public ArticleFetcher.Sink articleSink() {
+        return new ArticleFetcher.Sink() {
+            private DiskLruCache.Editor editor;
+
+            @Override
+            public OutputStream open() throws IOException {
+                editor = cache.edit(ARTICLE_KEY);
+                if (editor == null) {
+                    throw new ArticleFetcher.SinkUnavailableException("Article is already being written");
+                }
+                return RecordCodec.begin(editor.newOutputStream(0));
+            }
+
+            @Override
+            public void commit() throws IOException {
+                // Unused values still have to exist
+                editor.newOutputStream(RENDERED_PAGE).close();
+                editor.newOutputStream(SPEECH).close();
+                editor.commit();
+                editor = null;
+                cache.flush();
+            }
+
+            @Override
+            public void abort() {
+                if (editor != null) {
+                    try {
+                        editor.abort();
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Unable to abort article: " + e.getMessage());
+                    }
+                    editor = null;
+                }
+            }
+        };
+    }
+
+    private List<String> getTable() throws IOException {
+        if (table == null) {
+            DiskLruCache.Snapshot snapshot = cache.get(TABLE_KEY);
+            if (snapshot != null) {
+                try {
+                    table = RecordCodec.decodeTable(readFully(snapshot.getInputStream(0)));
+                } finally {
+                    snapshot.close();
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Write all the values of an entry and flush the journal
+     */
+    private void write(String key, byte[]... values) throws IOException {
+        writeEntry(key, values);
+        cache.flush();
+    }
+
+    /**
+     * Flush the journal after writes that didn't
+     */
+    private void flush() {
+        try {
+            cache.flush();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to flush the cache journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write all the values of an entry, DiskLruCache requires each of them for a new entry. The
+     * journal isn't flushed.
+     */
+    private void writeEntry(String key, byte[]... values) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        if (editor == null) {
+            throw new IOException("Entry " + key + " is being edited");
+        }
+        try {
+            for (int i = 0; i < values.length; i++) {
+                OutputStream out = editor.newOutputStream(i);
+                try {
+                    out.write(values[i]);
+                } finally {
+                    out.close();
+                }
+            }
+            editor.commit();
+        } catch (IOException e) {
+            editor.abort();
+            throw e;
+        }
+    }
+
+    private void remove(String key) {
+        memory.remove(key);
+        try {
+            cache.remove(key);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to remove " + key + ": " + e.getMessage());
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Versioned binary format for the values kept in the {@link RecordCache}.
+ * <p>
+ * Every value starts with a magic byte and the format version, followed by a deflate compressed
+ * body. Strings are always UTF-8 and length prefixed with a varint. Records refer to their keys
+ * by index into a shared string table (the column names), so the names aren't repeated in every
+ * state's record.
+ */
+public final class RecordCodec {
+
+    /**
+     * Bumped whenever the layout changes, values written with another version are discarded
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x57;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private RecordCodec() {
+    }
+
+    /**
+     * @param strings the table to encode
+     * @return the encoded table
+     */
+    public static byte[] encodeTable(List<String> strings) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = begin(bytes);
+            writeVarInt(out, strings.size());
+            for (String string : strings) {
+                writeString(out, string);
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param data produced by {@link #encodeTable(List)}
+     * @return the table
+     * @throws IOException if the data is corrupt or in another format version
+     */
+    public static List<String> decodeTable(byte[] data) throws IOException {
+        DataInputStream in = begin(data);
+        int size = readVarInt(in);
+        List<String> strings = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    /**
+     * @param record to encode
+     * @param table the shared string table
+     * @param index index of each string in the table, keys missing from it are inlined
+     * @return the encoded record
+     */
+    public static byte[] encodeRecord(Map<String, String> record, List<String> table, Map<String, Integer> index) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = begin(bytes);
+            out.writeInt(table.hashCode());
+            writeVarInt(out, record.size());
+            for (Map.Entry<String, String> entry : record.entrySet()) {
+                Integer position = index.get(entry.getKey());
+                if (position != null) {
+                    writeVarInt(out, position + 1);
+                } else {
+                    writeVarInt(out, 0);
+                    writeString(out, entry.getKey());
+                }
+                writeString(out, entry.getValue() == null ? "" : entry.getValue());
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param data produced by {@link #encodeRecord(Map, List, Map)}
+     * @param table the shared string table the record was encoded against
+     * @return the record, in the order it was written
+     * @throws IOException if the data is corrupt, in another format version or was encoded
+     * against a different table
+     */
+    public static Map<String, String> decodeRecord(byte[] data, List<String> table) throws IOException {
+        DataInputStream in = begin(data);
+        if (in.readInt() != table.hashCode()) {
+            throw new IOException("Record was encoded against another string table");
+        }
+        int size = readVarInt(in);
+        Map<String, String> record = new LinkedHashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            int index = readVarInt(in);
+            String key;
+            if (index == 0) {
+                key = readString(in);
+            } else if (index <= table.size()) {
+                key = table.get(index - 1);
+            } else {
+                throw new IOException("Record refers to missing table entry " + index);
+            }
+            record.put(key, readString(in));
+        }
+        return record;
+    }
+
+    /**
+     * @param text to encode
+     * @return the encoded text
+     */
+    public static byte[] encodeText(String text) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = begin(bytes);
+            writeString(out, text);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param data produced by {@link #encodeText(String)}
+     * @return the text
+     * @throws IOException if the data is corrupt or in another format version
+     */
+    public static String decodeText(byte[] data) throws IOException {
+        return readString(begin(data));
+    }
+
+    /**
+     * Writes the header and wraps the stream so everything after it is compressed
+     *
+     * @param out to write to
+     * @return stream for the body
+     * @throws IOException on a write failure
+     */
+    public static DataOutputStream begin(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(FORMAT_VERSION);
+        return new DataOutputStream(new DeflaterOutputStream(out));
+    }
+
+    /**
+     * Checks the header and wraps the stream to decompress the body
+     *
+     * @param in to read from
+     * @return stream for the body
+     * @throws IOException if the header doesn't match
+     */
+    public static DataInputStream begin(InputStream in) throws IOException {
+        if (in.read() != MAGIC) {
+            throw new IOException("Not a record");
+        }
+        int version = in.read();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported record format " + version);
+        }
+        return new DataInputStream(new InflaterInputStream(in));
+    }
+
+    private static DataInputStream begin(byte[] data) throws IOException {
+        return begin(new ByteArrayInputStream(data));
+    }
+
+    public static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
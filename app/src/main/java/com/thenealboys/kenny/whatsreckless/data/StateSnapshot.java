@@ -0,0 +1,185 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A tiny snapshot of the last rendered state (its record and pre-rendered page), small enough to
+ * be read synchronously at startup so the first frame already shows content.
+ */
+public class StateSnapshot {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = StateSnapshot.class.getSimpleName();
+
+    /**
+     * Name of the snapshot file, kept in the files dir so it isn't evicted with the cache
+     */
+    static final String FILE_NAME = "last_state.snapshot";
+
+    /**
+     * Bumped whenever the layout of the snapshot file or its rendered page changes, older
+     * snapshots are ignored
+     */
+    static final int FORMAT_VERSION = 3;
+
+    private final String state;
+    private final Map<String, String> stateInfo;
+    private final String renderedPage;
+
+    /**
+     * @param state the snapshot is for
+     * @param stateInfo the record shown for the state
+     * @param renderedPage the page rendered from the record, may be null
+     */
+    public StateSnapshot(String state, Map<String, String> stateInfo, String renderedPage) {
+        this.state = state;
+        this.stateInfo = stateInfo;
+        this.renderedPage = renderedPage;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public Map<String, String> getStateInfo() {
+        return stateInfo;
+    }
+
+    public String getRenderedPage() {
+        return renderedPage;
+    }
+
+    /**
+     * Read the last snapshot
+     *
+     * @param context used to locate the snapshot file
+     * @return the snapshot, or null if there isn't a usable one
+     */
+    public static StateSnapshot load(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String state = readString(in);
+            String renderedPage = in.readBoolean() ? readString(in) : null;
+            int count = in.readInt();
+            Map<String, String> stateInfo = new LinkedHashMap<String, String>();
+            for (int i = 0; i < count; i++) {
+                stateInfo.put(readString(in), readString(in));
+            }
+            return new StateSnapshot(state, stateInfo, renderedPage);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read snapshot: " + e.getMessage());
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write this snapshot, replacing the previous one. The file is written aside and renamed so a
+     * crash mid write never leaves a corrupt snapshot. Should not be called on the UI thread.
+     *
+     * @param context used to locate the snapshot file
+     */
+    public void save(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File tmp = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, state);
+            out.writeBoolean(renderedPage != null);
+            if (renderedPage != null) {
+                writeString(out, renderedPage);
+            }
+            out.writeInt(stateInfo.size());
+            for (Map.Entry<String, String> entry : stateInfo.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue() == null ? "" : entry.getValue());
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.w(LOG_TAG, "Unable to replace snapshot");
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write snapshot: " + e.getMessage());
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Forget the last snapshot, the next start shows nothing until a state has loaded
+     *
+     * @param context used to locate the snapshot file
+     */
+    public static void clear(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (file.exists() && !file.delete()) {
+            Log.w(LOG_TAG, "Unable to delete snapshot");
+        }
+    }
+
+    /**
+     * {@link DataOutputStream#writeUTF(String)} is limited to 64KB, which the details can exceed
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignored, nothing left to do with the stream
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.data;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ * Bounded scheduler for data work, with three priority lanes:
+ * <ol>
+ * <li>{@link #RENDER}, the state the user is looking at</li>
+ * <li>{@link #CROSSING}, the state the user is crossing into</li>
+ * <li>{@link #BACKGROUND}, refreshes and prefetches</li>
+ * </ol>
+ * Jobs run in lane order, first in first out within a lane. Background jobs never hold more than
+ * {@link #BACKGROUND_WORKERS} of the workers, so foreground work always has one free. If
+ * foreground work finds every worker busy while a {@link PreemptibleJob} runs, that job is
+ * interrupted and, if it reports it gave up, queued again at the front of its lane. Plain
+ * {@link Runnable}s are never interrupted, so a job writing a file or holding a resource always
+ * runs to the end.
+ */
+public final class TaskScheduler {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = TaskScheduler.class.getSimpleName();
+
+    public static final int RENDER = 0;
+    public static final int CROSSING = 1;
+    public static final int BACKGROUND = 2;
+    private static final int LANE_COUNT = 3;
+
+    private static final int WORKERS = 3;
+    private static final int BACKGROUND_WORKERS = 1;
+
+    /**
+     * Queued background jobs beyond this drop the oldest preemptible one, it's the most likely to
+     * be stale
+     */
+    static final int MAX_QUEUED_BACKGROUND = 16;
+
+    /**
+     * Background work that can stop part way and be run again from the start, such as a prefetch.
+     * Only these are interrupted to make room for foreground work, and only these are dropped when
+     * too much background work is queued.
+     */
+    public interface PreemptibleJob {
+        /**
+         * Run the job, giving up as soon as the thread is interrupted
+         *
+         * @return true if the job finished, false if it gave up and should be run again
+         */
+        boolean run();
+    }
+
+    private static TaskScheduler instance;
+
+    private final Object lock = new Object();
+
+    /**
+     * Guarded by lock
+     */
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Runnable>[] lanes = new ArrayDeque[LANE_COUNT];
+    private final Worker[] workers = new Worker[WORKERS];
+    private int idleWorkers = 0;
+    private int runningBackground = 0;
+
+    private final Executor[] executors = new Executor[LANE_COUNT];
+
+    private TaskScheduler() {
+        for (int i = 0; i < LANE_COUNT; i++) {
+            lanes[i] = new ArrayDeque<Runnable>();
+            final int lane = i;
+            executors[i] = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    submit(lane, command);
+                }
+            };
+        }
+        for (int i = 0; i < WORKERS; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * @return the process wide scheduler
+     */
+    public static synchronized TaskScheduler get() {
+        if (instance == null) {
+            instance = new TaskScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * @param lane {@link #RENDER}, {@link #CROSSING} or {@link #BACKGROUND}
+     * @return an executor submitting to the lane, for {@code AsyncTask.executeOnExecutor}
+     */
+    public Executor executor(int lane) {
+        return executors[lane];
+    }
+
+    /**
+     * Queue a job. It runs to the end however long it takes, so it may hold a resource such as a
+     * receiver's pending result.
+     *
+     * @param lane {@link #RENDER}, {@link #CROSSING} or {@link #BACKGROUND}
+     * @param job to run
+     */
+    public void submit(int lane, Runnable job) {
+        synchronized (lock) {
+            lanes[lane].addLast(job);
+            if (lane == BACKGROUND && lanes[lane].size() > MAX_QUEUED_BACKGROUND) {
+                dropPreemptibleLocked();
+            }
+            Diagnostics.max(Diagnostics.SCHEDULER_MAX_QUEUE_DEPTH, queueDepthLocked());
+
+            if (lane != BACKGROUND && idleWorkers == 0) {
+                preemptLocked();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Queue a background job that may be interrupted, and dropped if too much background work is
+     * queued
+     *
+     * @param job to run
+     */
+    public void submit(PreemptibleJob job) {
+        submit(BACKGROUND, new Preemptible(job));
+    }
+
+    /**
+     * Drop the oldest queued preemptible job. Plain jobs are kept, even past the bound.
+     */
+    private void dropPreemptibleLocked() {
+        Iterator<Runnable> queued = lanes[BACKGROUND].iterator();
+        while (queued.hasNext()) {
+            if (queued.next() instanceof Preemptible) {
+                queued.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param lane {@link #RENDER}, {@link #CROSSING} or {@link #BACKGROUND}
+     * @return how many jobs are waiting in the lane
+     */
+    public int getQueueDepth(int lane) {
+        synchronized (lock) {
+            return lanes[lane].size();
+        }
+    }
+
+    /**
+     * @return how many jobs are waiting in all lanes
+     */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return queueDepthLocked();
+        }
+    }
+
+    private int queueDepthLocked() {
+        int depth = 0;
+        for (ArrayDeque<Runnable> lane : lanes) {
+            depth += lane.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Interrupt a running preemptible job, its worker queues it again if it gave up
+     */
+    private void preemptLocked() {
+        for (Worker worker : workers) {
+            if (worker.running instanceof Preemptible && !worker.preempted) {
+                worker.preempted = true;
+                worker.interrupt();
+                Diagnostics.increment(Diagnostics.SCHEDULER_PREEMPTIONS);
+                return;
+            }
+        }
+    }
+
+    private class Worker extends Thread {
+        /**
+         * Guarded by lock
+         */
+        int lane = -1;
+        Runnable running;
+        boolean preempted = false;
+
+        Worker(int index) {
+            super("TaskScheduler-" + index);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable job;
+                synchronized (lock) {
+                    idleWorkers++;
+                    while ((job = nextLocked()) == null) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            // Preempted after finishing its job, nothing to requeue
+                        }
+                    }
+                    idleWorkers--;
+                }
+
+                try {
+                    Process.setThreadPriority(lane == BACKGROUND
+                            ? Process.THREAD_PRIORITY_BACKGROUND : Process.THREAD_PRIORITY_DEFAULT);
+                    job.run();
+                } catch (RuntimeException e) {
+                    // Keep the worker
+                    Log.e(LOG_TAG, "Job failed", e);
+                } finally {
+                    synchronized (lock) {
+                        if (lane == BACKGROUND) {
+                            runningBackground--;
+                            if (preempted && job instanceof Preemptible && !((Preemptible) job).finished) {
+                                lanes[BACKGROUND].addFirst(job);
+                            }
+                            lock.notifyAll();
+                        }
+                        lane = -1;
+                        running = null;
+                        preempted = false;
+                        // Clear an interrupt that came in after the job returned
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+
+        private Runnable nextLocked() {
+            for (int i = 0; i < LANE_COUNT; i++) {
+                if (i == BACKGROUND && runningBackground >= BACKGROUND_WORKERS) {
+                    break;
+                }
+                Runnable job = lanes[i].pollFirst();
+                if (job != null) {
+                    lane = i;
+                    running = job;
+                    if (i == BACKGROUND) {
+                        runningBackground++;
+                    }
+                    return job;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Queues a {@link PreemptibleJob} and remembers whether its last run finished
+     */
+    private static class Preemptible implements Runnable {
+        private final PreemptibleJob job;
+        volatile boolean finished;
+
+        Preemptible(PreemptibleJob job) {
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            finished = false;
+            try {
+                finished = job.run();
+            } catch (RuntimeException e) {
+                // Failed rather than gave up, running it again won't help
+                finished = true;
+                throw e;
+            }
+        }
+    }
+}
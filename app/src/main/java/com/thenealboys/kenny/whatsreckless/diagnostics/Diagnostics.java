@@ -0,0 +1,182 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.diagnostics;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always on, process wide counters for attributing battery and data use. Counting is a single
+ * lock free atomic add, cheap enough for every fix and every parse. The counters are rolled up
+ * into the {@link SessionLog} each time the app goes to the background, see
+ * {@link SessionRecorder}.
+ */
+public final class Diagnostics {
+
+    /**
+     * Counter ids, indexes into {@link #NAMES}. Only ever append, the ids are persisted.
+     */
+    public static final int LOCATION_FIXES = 0;
+    public static final int GEOCODES = 1;
+    public static final int GEOCODE_FAILURES = 2;
+    public static final int GEOCODE_TIME_MS = 3;
+    public static final int NETWORK_BYTES = 4;
+    public static final int CACHE_HITS = 5;
+    public static final int CACHE_MISSES = 6;
+    public static final int PARSES = 7;
+    public static final int PARSE_TIME_MS = 8;
+    public static final int RENDERS = 9;
+    public static final int TTS_UTTERANCES = 10;
+    public static final int TIME_TO_FIRST_CONTENT_MS = 11;
+    public static final int TIME_TO_FIRST_STATE_MS = 12;
+    public static final int SCHEDULER_MAX_QUEUE_DEPTH = 13;
+    public static final int SCHEDULER_PREEMPTIONS = 14;
+    public static final int STATE_RESOLVE_MISSES = 15;
+    public static final int PREFETCHES = 16;
+    public static final int PREFETCHES_THROTTLED = 17;
+    public static final int LAW_SOURCE_TIMEOUTS = 18;
+    public static final int LAW_SOURCE_FAILURES = 19;
+    public static final int WIDGET_UPDATES = 20;
+    public static final int WIDGET_UPDATE_TIME_MS = 21;
+
+    /**
+     * Display names of the counters
+     */
+    public static final String[] NAMES = {
+            "Location fixes",
+            "Geocoder calls",
+            "Geocoder failures",
+            "Geocoder time (ms)",
+            "Network bytes",
+            "Cache hits",
+            "Cache misses",
+            "Article parses",
+            "Parse time (ms)",
+            "Renders",
+            "TTS utterances",
+            "Time to first content (ms)",
+            "Time to first state (ms)",
+            "Max scheduler queue depth",
+            "Background preemptions",
+            "State name misses",
+            "Next state prefetches",
+            "Prefetches over budget",
+            "Law source timeouts",
+            "Law source failures",
+            "Widget updates",
+            "Widget update time (ms)",
+    };
+
+    public static final int COUNTER_COUNT = NAMES.length;
+
+    private static final AtomicLongArray counters = new AtomicLongArray(COUNTER_COUNT);
+
+    private static long sessionStart = System.currentTimeMillis();
+
+    /**
+     * Held while the session is read or ended, so a reader never sees it half reset
+     */
+    private static final Object sessionLock = new Object();
+
+    private Diagnostics() {
+    }
+
+    /**
+     * @param counter id of the counter to bump by one
+     */
+    public static void increment(int counter) {
+        counters.incrementAndGet(counter);
+    }
+
+    /**
+     * @param counter id of the counter
+     * @param delta to add to it
+     */
+    public static void add(int counter, long delta) {
+        counters.addAndGet(counter, delta);
+    }
+
+    /**
+     * @param counter id of the counter
+     * @param value to replace it with, for values measured once per session
+     */
+    public static void set(int counter, long value) {
+        counters.set(counter, value);
+    }
+
+    /**
+     * @param counter id of the counter
+     * @param value to replace it with if it's larger, for high water marks
+     */
+    public static void max(int counter, long value) {
+        long current;
+        while (value > (current = counters.get(counter))) {
+            if (counters.compareAndSet(counter, current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add the time elapsed since a {@link #start()} call to a counter
+     *
+     * @param counter id of the counter
+     * @param start value returned by {@link #start()}
+     */
+    public static void addElapsed(int counter, long start) {
+        counters.addAndGet(counter, SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * @return a timestamp for {@link #addElapsed(int, long)}
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return the counters of the current session
+     */
+    public static SessionLog.Session current() {
+        synchronized (sessionLock) {
+            long[] values = new long[COUNTER_COUNT];
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                values[i] = counters.get(i);
+            }
+            return new SessionLog.Session(sessionStart, System.currentTimeMillis(), values);
+        }
+    }
+
+    /**
+     * Close the current session and start a new one with all counters at zero. Counts racing with
+     * this call end up in one session or the other, never lost.
+     *
+     * @return the closed session
+     */
+    public static SessionLog.Session endSession() {
+        synchronized (sessionLock) {
+            long[] values = new long[COUNTER_COUNT];
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                values[i] = counters.getAndSet(i, 0);
+            }
+            long start = sessionStart;
+            long end = System.currentTimeMillis();
+            sessionStart = end;
+            return new SessionLog.Session(start, end, values);
+        }
+    }
+}
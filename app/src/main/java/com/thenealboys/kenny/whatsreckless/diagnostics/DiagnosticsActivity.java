@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.diagnostics;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.text.format.DateFormat;
+import android.widget.TextView;
+
+import com.thenealboys.kenny.whatsreckless.R;
+
+import java.lang.ref.WeakReference;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Shows the counters of the current session and the logged past sessions
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    private TextView text;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+
+        text = (TextView) findViewById(R.id.diagnosticsText);
+        new LoadSessionsTask(this).execute();
+    }
+
+    /**
+     * Reads and formats the session log off the UI thread. Static and holding the screen weakly,
+     * so a slow read doesn't keep a closed screen alive.
+     */
+    private static class LoadSessionsTask extends AsyncTask<Void, Void, String> {
+        private final Context context;
+        private final SessionLog log;
+        private final WeakReference<DiagnosticsActivity> activity;
+
+        LoadSessionsTask(DiagnosticsActivity activity) {
+            this.context = activity.getApplicationContext();
+            this.log = new SessionLog(this.context);
+            this.activity = new WeakReference<DiagnosticsActivity>(activity);
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            StringBuilder sb = new StringBuilder();
+            append(sb, context.getString(R.string.diagnostics_current_session), Diagnostics.current());
+            List<SessionLog.Session> sessions = log.read();
+            java.text.DateFormat dateFormat = DateFormat.getDateFormat(context);
+            java.text.DateFormat timeFormat = DateFormat.getTimeFormat(context);
+            for (SessionLog.Session session : sessions) {
+                Date start = new Date(session.start);
+                append(sb, dateFormat.format(start) + " " + timeFormat.format(start), session);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        protected void onPostExecute(String result) {
+            DiagnosticsActivity target = activity.get();
+            if (target != null && !target.isFinishing()) {
+                target.text.setText(result);
+            }
+        }
+    }
+
+    private static void append(StringBuilder sb, String title, SessionLog.Session session) {
+        sb.append(title)
+                .append(" (")
+                .append((session.end - session.start) / 1000)
+                .append(" s)\n");
+        for (int i = 0; i < session.values.length; i++) {
+            sb.append("  ").append(Diagnostics.NAMES[i]).append(": ").append(session.values[i]).append('\n');
+        }
+        sb.append('\n');
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.diagnostics;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persisted ring buffer of the last {@link #CAPACITY} sessions' counters. Every slot has the same
+ * size, so adding a session is a single seek and write no matter how long the log has been kept.
+ */
+public class SessionLog {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = SessionLog.class.getSimpleName();
+
+    private static final String FILE_NAME = "diagnostics.log";
+
+    /**
+     * Number of sessions kept
+     */
+    static final int CAPACITY = 32;
+
+    /**
+     * Header: format version, counter count, number of sessions written so far. Each slot holds
+     * the session's start and end and then one value per counter, in id order. Counter ids are
+     * only ever appended, so a log from a build with fewer counters is still readable.
+     */
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    /**
+     * Counter count and sessions written, as found in the header
+     */
+    private static class Layout {
+        final int counters;
+        final long written;
+
+        Layout(int counters, long written) {
+            this.counters = counters;
+            this.written = written;
+        }
+    }
+
+    /**
+     * The counters of one session
+     */
+    public static class Session {
+        public final long start;
+        public final long end;
+        public final long[] values;
+
+        public Session(long start, long end, long[] values) {
+            this.start = start;
+            this.end = end;
+            this.values = values;
+        }
+    }
+
+    private final File file;
+
+    public SessionLog(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    SessionLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Append a session, overwriting the oldest one once the log is full. Should not be called on
+     * the UI thread.
+     *
+     * @param session to append
+     */
+    public synchronized void append(Session session) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            Layout layout = readLayout(raf);
+            long written = 0;
+            if (layout != null && layout.counters == Diagnostics.COUNTER_COUNT) {
+                written = layout.written;
+            } else if (layout != null) {
+                // Counters were added since the log was written, move the sessions over to the
+                // current layout rather than lose them
+                List<Session> sessions = readSessions(raf, layout);
+                raf.setLength(0);
+                for (int i = sessions.size() - 1; i >= 0; i--) {
+                    write(raf, written++, sessions.get(i));
+                }
+            }
+            write(raf, written, session);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write session: " + e.getMessage());
+        } finally {
+            close(raf);
+        }
+    }
+
+    /**
+     * @return the logged sessions, newest first
+     */
+    public synchronized List<Session> read() {
+        if (!file.exists()) {
+            return new ArrayList<Session>();
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            Layout layout = readLayout(raf);
+            if (layout != null) {
+                return readSessions(raf, layout);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read sessions: " + e.getMessage());
+        } finally {
+            close(raf);
+        }
+        return new ArrayList<Session>();
+    }
+
+    /**
+     * Write a session into the slot for the given sequence number and count it in the header, in
+     * the current layout
+     */
+    private static void write(RandomAccessFile raf, long sequence, Session session) throws IOException {
+        raf.seek(HEADER_SIZE + (sequence % CAPACITY) * slotSize(Diagnostics.COUNTER_COUNT));
+        raf.writeLong(session.start);
+        raf.writeLong(session.end);
+        for (int i = 0; i < Diagnostics.COUNTER_COUNT; i++) {
+            raf.writeLong(i < session.values.length ? session.values[i] : 0);
+        }
+        raf.seek(0);
+        raf.writeInt(FORMAT_VERSION);
+        raf.writeInt(Diagnostics.COUNTER_COUNT);
+        raf.writeLong(sequence + 1);
+    }
+
+    /**
+     * @return the sessions in the given layout, newest first, with counters the log predates at
+     * zero
+     */
+    private static List<Session> readSessions(RandomAccessFile raf, Layout layout) throws IOException {
+        List<Session> sessions = new ArrayList<Session>();
+        int slotSize = slotSize(layout.counters);
+        for (long i = layout.written - 1; i >= 0 && i >= layout.written - CAPACITY; i--) {
+            raf.seek(HEADER_SIZE + (i % CAPACITY) * slotSize);
+            long start = raf.readLong();
+            long end = raf.readLong();
+            long[] values = new long[Diagnostics.COUNTER_COUNT];
+            for (int j = 0; j < layout.counters; j++) {
+                long value = raf.readLong();
+                if (j < values.length) {
+                    values[j] = value;
+                }
+            }
+            sessions.add(new Session(start, end, values));
+        }
+        return sessions;
+    }
+
+    /**
+     * @return the header, null for a new log or one in an unknown format
+     */
+    private static Layout readLayout(RandomAccessFile raf) throws IOException {
+        if (raf.length() < HEADER_SIZE) {
+            return null;
+        }
+        raf.seek(0);
+        if (raf.readInt() != FORMAT_VERSION) {
+            // Start over rather than misread the slots
+            return null;
+        }
+        int counters = raf.readInt();
+        long written = raf.readLong();
+        if (counters < 0 || raf.length() < HEADER_SIZE + Math.min(written, CAPACITY) * slotSize(counters)) {
+            return null;
+        }
+        return new Layout(counters, written);
+    }
+
+    private static int slotSize(int counters) {
+        return 8 + 8 + 8 * counters;
+    }
+
+    private static void close(RandomAccessFile raf) {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // Ignored, nothing left to do with the file
+            }
+        }
+    }
+}
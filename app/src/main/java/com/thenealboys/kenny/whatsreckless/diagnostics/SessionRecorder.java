@@ -0,0 +1,83 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.diagnostics;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import com.thenealboys.kenny.whatsreckless.data.TaskScheduler;
+
+/**
+ * Ends the diagnostics session when the app goes to the background, that is when its last
+ * visible screen stops. Moving between the app's own screens, or rotating one, keeps the session
+ * going.
+ */
+public class SessionRecorder implements Application.ActivityLifecycleCallbacks {
+
+    private final SessionLog log;
+
+    /**
+     * Screens started and not yet stopped, only touched on the UI thread
+     */
+    private int started;
+
+    public SessionRecorder(Application application) {
+        this.log = new SessionLog(application);
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        started++;
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        started--;
+        if (started > 0 || activity.isChangingConfigurations()) {
+            return;
+        }
+
+        // Roll the session's counters up into the diagnostics log
+        final SessionLog.Session session = Diagnostics.endSession();
+        TaskScheduler.get().submit(TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                log.append(session);
+            }
+        });
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.journal;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.thenealboys.kenny.whatsreckless.data.TaskScheduler;
+import com.thenealboys.kenny.whatsreckless.location.StateResolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append only log of state line crossings. Each crossing is a fixed width record:
+ * <pre>
+ *  0 long   time, ms since the epoch
+ *  8 double latitude
+ * 16 double longitude
+ * 24 long   version of the law record shown, 0 if none
+ * 32 float  accuracy of the position in meters
+ * 36 short  id of the state left, see {@link StateResolver}
+ * 38 short  id of the state entered
+ * 40 int    flags
+ * 44 int    reserved
+ * </pre>
+ * Crossings are put into a preallocated buffer and written in batches, so appending neither
+ * allocates nor syncs the file. The buffer is written when it's full, when it's been holding a
+ * crossing for {@link #MAX_UNWRITTEN_MS} or on {@link #flush()}. The deadline is kept by a
+ * delayed job, so crossings logged while the app is closed are written even if no more follow.
+ */
+public final class TripJournal {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = TripJournal.class.getSimpleName();
+
+    static final String FILE_NAME = "trips.journal";
+
+    static final int MAGIC = 0x54524950;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 48;
+
+    /**
+     * Record flags, a zero filled record isn't {@link #FLAG_VALID}
+     */
+    static final int FLAG_VALID = 1;
+    static final int FLAG_HAS_POSITION = 2;
+
+    static final int BATCH = 16;
+    static final long MAX_UNWRITTEN_MS = 10 * 60 * 1000;
+
+    private static TripJournal instance;
+
+    private final File file;
+
+    /**
+     * Guarded by this
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH * RECORD_SIZE);
+    private long firstBufferedAt = 0;
+    private FileChannel channel = null;
+    private long end = 0;
+
+    /**
+     * Writes the buffer on the crossing lane once its first crossing is {@link #MAX_UNWRITTEN_MS}
+     * old
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable deadline = new Runnable() {
+        @Override
+        public void run() {
+            TaskScheduler.get().submit(TaskScheduler.CROSSING, new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+    };
+
+    TripJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param context any context
+     * @return the process wide journal
+     */
+    public static synchronized TripJournal get(Context context) {
+        if (instance == null) {
+            instance = new TripJournal(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    /**
+     * @param file to journal into
+     * @return a journal apart from the process wide one, such as a scratch journal for benchmarks
+     */
+    public static TripJournal at(File file) {
+        return new TripJournal(file);
+    }
+
+    /**
+     * @return the journal's file, for {@link TripJournalReader}
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Record a crossing. Writes the batch when it's due, so call it off the UI thread.
+     *
+     * @param time of the crossing, ms since the epoch
+     * @param hasPosition whether the position is known
+     * @param latitude of the crossing
+     * @param longitude of the crossing
+     * @param accuracy of the position in meters
+     * @param oldState the state left
+     * @param newState the state entered
+     * @param recordVersion version of the law record shown for the new state, 0 if none
+     */
+    public synchronized void append(long time, boolean hasPosition, double latitude, double longitude, float accuracy,
+                                    String oldState, String newState, long recordVersion) {
+        if (buffer.position() == 0) {
+            firstBufferedAt = SystemClock.elapsedRealtime();
+            handler.postDelayed(deadline, MAX_UNWRITTEN_MS);
+        }
+        buffer.putLong(time)
+                .putDouble(latitude)
+                .putDouble(longitude)
+                .putLong(recordVersion)
+                .putFloat(accuracy)
+                .putShort((short) StateResolver.resolve(oldState))
+                .putShort((short) StateResolver.resolve(newState))
+                .putInt(FLAG_VALID | (hasPosition ? FLAG_HAS_POSITION : 0))
+                .putInt(0);
+
+        if (!buffer.hasRemaining() || SystemClock.elapsedRealtime() - firstBufferedAt > MAX_UNWRITTEN_MS) {
+            flushLocked();
+        }
+    }
+
+    /**
+     * Write and sync the buffered crossings, such as when the app goes to the background
+     */
+    public synchronized void flush() {
+        if (buffer.position() > 0) {
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() {
+        handler.removeCallbacks(deadline);
+        buffer.flip();
+        try {
+            FileChannel out = openLocked();
+            while (buffer.hasRemaining()) {
+                end += out.write(buffer, end);
+            }
+            out.force(false);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Dropping " + (buffer.limit() / RECORD_SIZE) + " crossings: " + e.getMessage());
+            closeLocked();
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Open the file, writing the header for a new journal and cutting off a partly written record
+     */
+    private FileChannel openLocked() throws IOException {
+        if (channel != null) {
+            return channel;
+        }
+        FileChannel opened = new RandomAccessFile(file, "rw").getChannel();
+        long length = opened.size();
+        if (length < HEADER_SIZE || !hasValidHeader(opened)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(RECORD_SIZE).putInt(0).flip();
+            opened.truncate(0);
+            opened.write(header, 0);
+            end = HEADER_SIZE;
+        } else {
+            end = HEADER_SIZE + (length - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+            opened.truncate(end);
+        }
+        channel = opened;
+        return channel;
+    }
+
+    private static boolean hasValidHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Keep reading
+        }
+        header.flip();
+        return header.remaining() == HEADER_SIZE && header.getInt() == MAGIC
+                && header.getInt() == FORMAT_VERSION && header.getInt() == RECORD_SIZE;
+    }
+
+    private void closeLocked() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to lose
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.journal;
+
+import com.thenealboys.kenny.whatsreckless.location.StateResolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the {@link TripJournal} by memory mapping it, and groups its crossings into trips
+ */
+public final class TripJournalReader {
+
+    /**
+     * Crossings further apart than this belong to different trips
+     */
+    static final long TRIP_GAP_MS = 6 * 60 * 60 * 1000L;
+
+    /**
+     * A logged state line crossing
+     */
+    public static final class Crossing {
+        public final long time;
+        public final boolean hasPosition;
+        public final double latitude;
+        public final double longitude;
+        public final float accuracy;
+        public final String oldState;
+        public final String newState;
+        public final long recordVersion;
+
+        Crossing(long time, boolean hasPosition, double latitude, double longitude, float accuracy,
+                 String oldState, String newState, long recordVersion) {
+            this.time = time;
+            this.hasPosition = hasPosition;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.accuracy = accuracy;
+            this.oldState = oldState;
+            this.newState = newState;
+            this.recordVersion = recordVersion;
+        }
+    }
+
+    /**
+     * Crossings that happened close together in time
+     */
+    public static final class Trip {
+        public final List<Crossing> crossings = new ArrayList<Crossing>();
+
+        public long getStart() {
+            return crossings.get(0).time;
+        }
+
+        public long getEnd() {
+            return crossings.get(crossings.size() - 1).time;
+        }
+    }
+
+    private TripJournalReader() {
+    }
+
+    /**
+     * @param file of the journal
+     * @return the trips, newest first; empty if there is no readable journal
+     * @throws IOException if the journal can't be read
+     */
+    public static List<Trip> readTrips(File file) throws IOException {
+        List<Trip> trips = new ArrayList<Trip>();
+        if (!file.exists()) {
+            return trips;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long records = (channel.size() - TripJournal.HEADER_SIZE) / TripJournal.RECORD_SIZE;
+            if (records <= 0) {
+                return trips;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    TripJournal.HEADER_SIZE + records * TripJournal.RECORD_SIZE);
+            if (map.getInt(0) != TripJournal.MAGIC || map.getInt(4) != TripJournal.FORMAT_VERSION
+                    || map.getInt(8) != TripJournal.RECORD_SIZE) {
+                return trips;
+            }
+
+            Trip trip = null;
+            for (int i = 0; i < records; i++) {
+                int at = TripJournal.HEADER_SIZE + i * TripJournal.RECORD_SIZE;
+                int flags = map.getInt(at + 40);
+                if ((flags & TripJournal.FLAG_VALID) == 0) {
+                    continue;
+                }
+                Crossing crossing = new Crossing(
+                        map.getLong(at),
+                        (flags & TripJournal.FLAG_HAS_POSITION) != 0,
+                        map.getDouble(at + 8),
+                        map.getDouble(at + 16),
+                        map.getFloat(at + 32),
+                        StateResolver.nameOf(map.getShort(at + 36)),
+                        StateResolver.nameOf(map.getShort(at + 38)),
+                        map.getLong(at + 24));
+                if (trip == null || crossing.time - trip.getEnd() > TRIP_GAP_MS) {
+                    trip = new Trip();
+                    trips.add(trip);
+                }
+                trip.crossings.add(crossing);
+            }
+        } finally {
+            raf.close();
+        }
+        Collections.reverse(trips);
+        return trips;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.journal;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.text.format.DateFormat;
+import android.util.Log;
+import android.widget.TextView;
+
+import com.thenealboys.kenny.whatsreckless.R;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Lists the past trips from the {@link TripJournal}
+ */
+public class TripsActivity extends AppCompatActivity {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = TripsActivity.class.getSimpleName();
+
+    private TextView text;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_trips);
+
+        text = (TextView) findViewById(R.id.tripsText);
+        new LoadTripsTask(this).execute();
+    }
+
+    /**
+     * Reads and formats the journal off the UI thread. Static and holding the screen weakly, so
+     * a long journal read doesn't keep a closed screen alive.
+     */
+    private static class LoadTripsTask extends AsyncTask<Void, Void, String> {
+        private final Context context;
+        private final TripJournal journal;
+        private final WeakReference<TripsActivity> activity;
+
+        LoadTripsTask(TripsActivity activity) {
+            this.context = activity.getApplicationContext();
+            this.journal = TripJournal.get(activity);
+            this.activity = new WeakReference<TripsActivity>(activity);
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            List<TripJournalReader.Trip> trips;
+            try {
+                // Include the crossings still in the buffer
+                journal.flush();
+                trips = TripJournalReader.readTrips(journal.getFile());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, e.getMessage());
+                return context.getString(R.string.trips_failed);
+            }
+            if (trips.isEmpty()) {
+                return context.getString(R.string.trips_empty);
+            }
+            java.text.DateFormat timeFormat = DateFormat.getTimeFormat(context);
+            StringBuilder sb = new StringBuilder();
+            for (TripJournalReader.Trip trip : trips) {
+                sb.append(context.getString(R.string.trip_title, format(context, trip.getStart()), trip.crossings.size()))
+                        .append('\n');
+                for (TripJournalReader.Crossing crossing : trip.crossings) {
+                    sb.append("  ")
+                            .append(timeFormat.format(new Date(crossing.time)))
+                            .append(' ')
+                            .append(context.getString(R.string.trip_crossing, crossing.oldState, crossing.newState));
+                    if (crossing.hasPosition) {
+                        sb.append(String.format(" (%.4f, %.4f)", crossing.latitude, crossing.longitude));
+                    }
+                    sb.append('\n');
+                }
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+
+        @Override
+        protected void onPostExecute(String result) {
+            TripsActivity target = activity.get();
+            if (target != null && !target.isFinishing()) {
+                target.text.setText(result);
+            }
+        }
+    }
+
+    private static String format(Context context, long time) {
+        Date date = new Date(time);
+        return DateFormat.getDateFormat(context).format(date) + " " + DateFormat.getTimeFormat(context).format(date);
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.location;
+
+import android.location.Location;
+
+public interface FixListener {
+	/**
+	 * Is called for every location fix, on the location lookup thread. Called at the GPS rate, so
+	 * implementations should return quickly and avoid allocating.
+	 *
+	 * @param location The new fix
+	 * @param state The US State the fix resolved to, null if it couldn't be resolved
+	 */
+	void onFix(Location location, String state);
+}
@@ -15,79 +15,250 @@
  */
 package com.thenealboys.kenny.whatsreckless.location;
 
-import android.app.Activity;
 import android.content.Context;
 import android.location.Address;
 import android.location.Geocoder;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.thenealboys.kenny.whatsreckless.R;
+import com.thenealboys.kenny.whatsreckless.Warmup;
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 
 public class LocationLookup implements LocationLookupInterface {
 
-    private LocationListener locListener = null;
-    private Location currentLocation = null;
-    private String currentState = null;
+    /**
+     * Update rate while only state changes are wanted
+     */
+    private static final long SLOW_UPDATE_MS = 5*60*1000;
+    private static final float SLOW_UPDATE_METERS = 1000;
+
+    /**
+     * Update rate while fix listeners that asked for it are registered
+     */
+    private static final long FAST_UPDATE_MS = 1000;
+
+    /**
+     * Fixes closer than this to the last geocoded one keep its state, so fast updates don't
+     * geocode every second
+     */
+    private static final float GEOCODE_DISTANCE_METERS = 1000;
+
+    /**
+     * After a failed geocode, such as while offline, the next one waits at least this long
+     * wherever the fixes are
+     */
+    private static final long GEOCODE_RETRY_MS = 60*1000;
+
+    /**
+     * Coarse fixes less accurate than this can't settle the state
+     */
+    private static final float ADEQUATE_ACCURACY_METERS = 5000;
+
+    /**
+     * Last known fixes older than this aren't used for seeding
+     */
+    private static final long SEED_MAX_AGE_MS = 10*60*1000;
+
+    /**
+     * A newer fix replaces a more accurate one once the more accurate one is this old
+     */
+    private static final long STALE_FIX_MS = 2*60*1000;
+
+    /**
+     * Allowance on top of a fix's accuracy when checking how close it is to a border
+     */
+    private static final double BORDER_SLACK_KM = 10;
+
+    private LocationListener coarseListener = null;
+    private LocationListener gpsListener = null;
+    private volatile Location currentLocation = null;
+    private volatile String currentState = null;
+
+    /**
+     * Only touched on the lookup thread
+     */
+    private Location geocodedLocation = null;
+    private long geocodedAt = 0;
+    private boolean geocodeFailed = false;
+    private boolean gpsWanted = true;
+    private boolean firstStateReported = false;
+
+    /**
+     * Guarded by this
+     */
+    private boolean gpsActive = false;
+    private long gpsInterval = 0;
+
+    /**
+     * Set under this by {@link #release()}, a fix still being geocoded then mustn't touch GPS
+     */
+    private volatile boolean released = false;
+
+    /**
+     * Fixes are delivered and geocoded on this thread, as the geocoder does network I/O. Listeners
+     * are still notified on the main thread.
+     */
+    private HandlerThread lookupThread = null;
+    private Handler lookupHandler = null;
+    private Handler mainHandler = null;
 
     private LocationManager manager = null;
     private Context context = null;
+    private final long createdAt = SystemClock.elapsedRealtime();
     
     private List<StateChangeListener> stateChangeListeners = null;
 
-    public LocationLookup( Activity context ) {
+    /**
+     * Replaced on every change, so the lookup thread can walk it without locking or allocating
+     */
+    private volatile FixListener[] fixListeners = new FixListener[0];
+
+    /**
+     * Listeners that asked for frequent updates, guarded by this
+     */
+    private final List<FixListener> fastFixListeners = new ArrayList<FixListener>();
+
+    public LocationLookup( Context context ) {
         this.context = context;
         
         stateChangeListeners = new ArrayList<StateChangeListener>();
+        mainHandler = new Handler( Looper.getMainLooper() );
+        lookupThread = new HandlerThread( LocationLookup.class.getSimpleName() );
+        lookupThread.start();
+        lookupHandler = new Handler( lookupThread.getLooper() );
         
         manager = (LocationManager) context.getSystemService( Context.LOCATION_SERVICE );
-        locListener = new LocationListener() {
-            @Override
-            public void onLocationChanged( Location location ) {
-            	
-            	// Check for state change, if found notify listeners
-            	String state = getStateForLocation(location);
-            	if (currentState!=null && state!=null && !state.equals(currentState)){
-            		notifyStateChangeListeners(currentState, state);
-            	}
-                currentLocation = location;
-                currentState = state;
-            }
+        coarseListener = new FixHandler();
+        gpsListener = new FixHandler();
+        enableLocationUpdates();
+    }
 
-            @Override
-            public void onStatusChanged( String provider, int status, Bundle extras ) {
-            }
+    /**
+     * Network, passive and GPS fixes all end up here, on the lookup thread
+     */
+    private class FixHandler implements LocationListener {
+        @Override
+        public void onLocationChanged( Location location ) {
+            onFix( location );
+        }
 
-            @Override
-            public void onProviderEnabled( String provider ) {
-            }
+        @Override
+        public void onStatusChanged( String provider, int status, Bundle extras ) {
+        }
 
-            @Override
-            public void onProviderDisabled( String provider ) {
-            }
-        };
-        enableLocationUpdates();
+        @Override
+        public void onProviderEnabled( String provider ) {
+        }
+
+        @Override
+        public void onProviderDisabled( String provider ) {
+        }
     }
 
-    private void notifyStateChangeListeners(String oldState, String newState){
-    	for(final StateChangeListener listener: stateChangeListeners){
-    		listener.onStateLocationChanged(oldState, newState);
+    private void onFix( Location location ) {
+        if ( released ) {
+            return;
+        }
+        Diagnostics.increment( Diagnostics.LOCATION_FIXES );
+        if ( !isBetterFix( location, currentLocation ) ) {
+            return;
+        }
+        if ( accuracyOf( location ) > ADEQUATE_ACCURACY_METERS ) {
+            // Too rough to tell the state, wait for GPS
+            updateGps( true );
+            return;
+        }
+
+    	// Check for state change, if found notify listeners
+    	String state = currentState;
+    	long now = SystemClock.elapsedRealtime();
+    	boolean geocode = geocodedLocation == null || ( geocodeFailed
+    	        ? now - geocodedAt >= GEOCODE_RETRY_MS
+    	        : location.distanceTo(geocodedLocation) >= GEOCODE_DISTANCE_METERS );
+    	if (geocode) {
+    	    String geocoded = getStateForLocation(location);
+    	    geocodedLocation = location;
+    	    geocodedAt = now;
+    	    geocodeFailed = geocoded == null;
+    	    // Keep the last known state through a failure, so the next success still sees the change
+    	    if (geocoded != null) {
+    	        state = geocoded;
+    	    }
+    	}
+    	if (currentState!=null && state!=null && !state.equals(currentState)){
+    		notifyStateChangeListeners(currentState, state);
     	}
+        if ( state != null && !firstStateReported ) {
+            firstStateReported = true;
+            Diagnostics.set( Diagnostics.TIME_TO_FIRST_STATE_MS, SystemClock.elapsedRealtime() - createdAt );
+        }
+        // State first, so anyone seeing the new location sees its state too
+        currentState = state;
+        currentLocation = location;
+
+        // Coarse fixes are enough away from borders, GPS only pays off close to one
+        updateGps( state == null || StateBounds.isNearBorder( state, location.getLatitude(), location.getLongitude(),
+                accuracyOf( location ) / 1000 + BORDER_SLACK_KM ) );
+
+        final FixListener[] listeners = fixListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onFix(location, state);
+        }
+    }
+
+    /**
+     * @return whether the fix should replace the current one
+     */
+    private static boolean isBetterFix( Location fix, Location current ) {
+        if ( current == null ) {
+            return true;
+        }
+        long newerBy = fix.getTime() - current.getTime();
+        if ( newerBy > STALE_FIX_MS ) {
+            return true;
+        }
+        if ( newerBy <= 0 ) {
+            return false;
+        }
+        return accuracyOf( fix ) <= accuracyOf( current ) || fix.getProvider().equals( current.getProvider() );
+    }
+
+    private static float accuracyOf( Location location ) {
+        return location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE;
+    }
+
+    private void notifyStateChangeListeners(final String oldState, final String newState){
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for(final StateChangeListener listener: stateChangeListeners){
+                    listener.onStateLocationChanged(oldState, newState);
+                }
+            }
+        });
     }
     
     @Override
     public String getCurrentState() {
         if ( currentLocation != null ) {
-            return getStateForLocation(currentLocation);
+            // Already geocoded when the fix came in
+            return currentState;
         } else {
 
             Log.e(this.getClass().getSimpleName(), context.getString(R.string.location_unassigned));
@@ -100,8 +271,14 @@ public class LocationLookup implements LocationLookupInterface {
 		if ( addr != null ) {
 		    if ( addr.getAdminArea() == null ) {
 		        Log.e(this.getClass().getSimpleName(), context.getString(R.string.no_state_found));
+		        return null;
+		    }
+		    // The admin area comes in the device's language, or as an abbreviation
+		    String state = StateResolver.canonicalName( addr.getAdminArea() );
+		    if ( state == null ) {
+		        Log.w(this.getClass().getSimpleName(), "Unknown state: " + addr.getAdminArea());
 		    }
-		    return addr.getAdminArea();
+		    return state;
 		} else {
 		    Log.e(this.getClass().getSimpleName(), context.getString(R.string.no_address_found));
 		    return null;
@@ -179,14 +356,21 @@ public class LocationLookup implements LocationLookupInterface {
 
     private Address getAddress( final Location location ) {
         /*
-         * Get a new geocoding service instance, set for localized addresses. This example uses android.location.Geocoder, but other geocoders that conform to address standards can also be used.
+         * Use the geocoding service instance made by the warm up, set for localized addresses.
          */
-        Geocoder geocoder = new Geocoder( context, Locale.getDefault() );
+        Geocoder geocoder;
+        try {
+            geocoder = Warmup.get( context ).geocoder().get();
+        } catch ( Exception e ) {
+            geocoder = new Geocoder( context, Locale.getDefault() );
+        }
 
         // Create a list to contain the result address
         List<Address> addresses = null;
 
         // Try to get an address for the current location. Catch IO or network problems.
+        Diagnostics.increment( Diagnostics.GEOCODES );
+        long start = Diagnostics.start();
         try {
 
             /*
@@ -196,6 +380,7 @@ public class LocationLookup implements LocationLookupInterface {
 
             // Catch network or other I/O problems.
         } catch ( IOException exception1 ) {
+            Diagnostics.increment( Diagnostics.GEOCODE_FAILURES );
 
             // Log an error and return an error message
             Log.e(this.getClass().getSimpleName(), context.getString(R.string.IO_Exception_getFromLocation));
@@ -216,7 +401,10 @@ public class LocationLookup implements LocationLookupInterface {
             exception2.printStackTrace();
 
             //
+            Diagnostics.increment( Diagnostics.GEOCODE_FAILURES );
             return null;
+        } finally {
+            Diagnostics.addElapsed( Diagnostics.GEOCODE_TIME_MS, start );
         }
         // If the reverse geocode returned an address
         if ( addresses != null && addresses.size() > 0 ) {
@@ -231,6 +419,7 @@ public class LocationLookup implements LocationLookupInterface {
         } else {
 
             Log.e(this.getClass().getSimpleName(), context.getString(R.string.no_address_found));
+            Diagnostics.increment( Diagnostics.GEOCODE_FAILURES );
             return null;
         }
     }
@@ -241,23 +430,89 @@ public class LocationLookup implements LocationLookupInterface {
 
     public void disableLocationUpdates() {
         try{
-            manager.removeUpdates( locListener );
+            manager.removeUpdates( coarseListener );
+            synchronized ( this ) {
+                manager.removeUpdates( gpsListener );
+                gpsActive = false;
+            }
         } catch (SecurityException e){
             Toast.makeText(context, context.getString(R.string.permissions_failed), Toast.LENGTH_LONG).show();
         }
     }
 
     /**
-     * Not needed for first start, but if disabled, allows for restarting.
+     * Not needed for first start, but if disabled, allows for restarting. Seeds the state from the
+     * last known fixes, listens to the network and passive providers and starts GPS until a coarse
+     * fix shows it isn't needed.
      */
     public void enableLocationUpdates() {
         try{
-            manager.requestLocationUpdates( LocationManager.GPS_PROVIDER, 5*60*1000, 1000, locListener );
+            List<String> providers = manager.getAllProviders();
+            if ( providers.contains( LocationManager.NETWORK_PROVIDER ) ) {
+                manager.requestLocationUpdates( LocationManager.NETWORK_PROVIDER, SLOW_UPDATE_MS, SLOW_UPDATE_METERS, coarseListener, lookupThread.getLooper() );
+            }
+            // Free fixes other apps asked for
+            manager.requestLocationUpdates( LocationManager.PASSIVE_PROVIDER, 0, 0, coarseListener, lookupThread.getLooper() );
+            requestGps( true );
+
+            final List<Location> lastKnown = new ArrayList<Location>();
+            for ( String provider : providers ) {
+                Location location = manager.getLastKnownLocation( provider );
+                if ( location != null && System.currentTimeMillis() - location.getTime() < SEED_MAX_AGE_MS ) {
+                    lastKnown.add( location );
+                }
+            }
+            lookupHandler.post( new Runnable() {
+                @Override
+                public void run() {
+                    for ( Location location : lastKnown ) {
+                        onFix( location );
+                    }
+                }
+            } );
         } catch (SecurityException e){
             Toast.makeText(context, context.getString(R.string.permissions_failed), Toast.LENGTH_LONG).show();
         }
     }
 
+    /**
+     * Called on the lookup thread after every fix
+     */
+    private void updateGps( boolean wanted ) {
+        if ( released ) {
+            return;
+        }
+        gpsWanted = wanted;
+        try {
+            requestGps( wanted );
+        } catch (SecurityException e){
+            Log.e( this.getClass().getSimpleName(), context.getString( R.string.permissions_failed ) );
+        }
+    }
+
+    /**
+     * Starts, stops or changes the rate of GPS updates, fast fix listeners keep it running at their
+     * rate
+     */
+    private synchronized void requestGps( boolean wanted ) {
+        if ( released ) {
+            // The lookup thread is quitting, updates requested on it would never be removed
+            return;
+        }
+        boolean listening = !fastFixListeners.isEmpty();
+        long interval = listening ? FAST_UPDATE_MS : SLOW_UPDATE_MS;
+        if ( wanted || listening ) {
+            if ( !gpsActive || gpsInterval != interval ) {
+                manager.requestLocationUpdates( LocationManager.GPS_PROVIDER, interval, listening ? 0 : SLOW_UPDATE_METERS, gpsListener, lookupThread.getLooper() );
+                gpsActive = true;
+                gpsInterval = interval;
+            }
+        } else if ( gpsActive ) {
+            manager.removeUpdates( gpsListener );
+            gpsActive = false;
+        }
+    }
+
 	@Override
 	public void registerStateChangeListener(
 			StateChangeListener listenerToRegister) {
@@ -271,4 +526,59 @@ public class LocationLookup implements LocationLookupInterface {
 		stateChangeListeners.remove(listenerToUnregister);
 		
 	}
-}
\ No newline at end of file
+
+	@Override
+	public void registerFixListener(FixListener listenerToRegister) {
+		registerFixListener(listenerToRegister, true);
+	}
+
+	@Override
+	public synchronized void registerFixListener(FixListener listenerToRegister, boolean fastUpdates) {
+		FixListener[] listeners = Arrays.copyOf(fixListeners, fixListeners.length + 1);
+		listeners[listeners.length - 1] = listenerToRegister;
+		fixListeners = listeners;
+		if (fastUpdates) {
+			fastFixListeners.add(listenerToRegister);
+			requestGpsFromAnyThread();
+		}
+	}
+
+	@Override
+	public synchronized void unregisterFixListener(FixListener listenerToUnregister) {
+		List<FixListener> listeners = new ArrayList<FixListener>(Arrays.asList(fixListeners));
+		if (listeners.remove(listenerToUnregister)) {
+			fixListeners = listeners.toArray(new FixListener[listeners.size()]);
+			if (fastFixListeners.remove(listenerToUnregister)) {
+				requestGpsFromAnyThread();
+			}
+		}
+	}
+
+	/**
+	 * Stop listening for good: removes the location updates, forgets every listener and quits the
+	 * lookup thread. Fixes already queued are dropped, and the lookup can't be used again.
+	 */
+	public synchronized void release() {
+		released = true;
+		disableLocationUpdates();
+		stateChangeListeners.clear();
+		fixListeners = new FixListener[0];
+		fastFixListeners.clear();
+		mainHandler.removeCallbacksAndMessages(null);
+		lookupHandler.removeCallbacksAndMessages(null);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			lookupThread.quitSafely();
+		} else {
+			lookupThread.quit();
+		}
+	}
+
+	private void requestGpsFromAnyThread() {
+		lookupHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				updateGps(gpsWanted);
+			}
+		});
+	}
+}
@@ -18,7 +18,8 @@ package com.thenealboys.kenny.whatsreckless.location;
 public interface LocationLookupInterface {
 
 	/**
-	 * @return Returns the 2 char abbreviation for the current US state from Google's location services.
+	 * @return Returns the canonical name of the current US state from Google's location services,
+	 * see {@link StateResolver}
 	 */
 	public String getCurrentState();
 
@@ -33,4 +34,24 @@ public interface LocationLookupInterface {
 	 * @param listenerToUnregister 
 	 */
 	public void unregisterStateChangeListener(final StateChangeListener listenerToUnregister);
+
+	/**
+	 * Register for every location fix, switches to frequent updates while registered
+	 * @param listenerToRegister
+	 */
+	public void registerFixListener(final FixListener listenerToRegister);
+
+	/**
+	 * Register for every location fix
+	 * @param listenerToRegister
+	 * @param fastUpdates true to switch to frequent updates while registered, false to only get
+	 * the fixes state tracking asks for anyway
+	 */
+	public void registerFixListener(final FixListener listenerToRegister, boolean fastUpdates);
+
+	/**
+	 * Unregister from location fixes
+	 * @param listenerToUnregister
+	 */
+	public void unregisterFixListener(final FixListener listenerToUnregister);
 }
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.location;
+
+/**
+ * Bundled graph of which states share a land border, used to guess the state a driver is about
+ * to enter. Borders that only touch at a point, such as the Four Corners, and borders across
+ * water don't count.
+ */
+public final class StateAdjacency {
+
+    /**
+     * Each state's postal abbreviation followed by its neighbours. Every border is listed from
+     * both sides.
+     */
+    private static final String[][] BORDERS = {
+            { "AL", "FL", "GA", "MS", "TN" },
+            { "AZ", "CA", "NM", "NV", "UT" },
+            { "AR", "LA", "MO", "MS", "OK", "TN", "TX" },
+            { "CA", "AZ", "NV", "OR" },
+            { "CO", "KS", "NE", "NM", "OK", "UT", "WY" },
+            { "CT", "MA", "NY", "RI" },
+            { "DE", "MD", "NJ", "PA" },
+            { "DC", "MD", "VA" },
+            { "FL", "AL", "GA" },
+            { "GA", "AL", "FL", "NC", "SC", "TN" },
+            { "ID", "MT", "NV", "OR", "UT", "WA", "WY" },
+            { "IL", "IA", "IN", "KY", "MO", "WI" },
+            { "IN", "IL", "KY", "MI", "OH" },
+            { "IA", "IL", "MN", "MO", "NE", "SD", "WI" },
+            { "KS", "CO", "MO", "NE", "OK" },
+            { "KY", "IL", "IN", "MO", "OH", "TN", "VA", "WV" },
+            { "LA", "AR", "MS", "TX" },
+            { "ME", "NH" },
+            { "MD", "DC", "DE", "PA", "VA", "WV" },
+            { "MA", "CT", "NH", "NY", "RI", "VT" },
+            { "MI", "IN", "OH", "WI" },
+            { "MN", "IA", "ND", "SD", "WI" },
+            { "MS", "AL", "AR", "LA", "TN" },
+            { "MO", "AR", "IA", "IL", "KS", "KY", "NE", "OK", "TN" },
+            { "MT", "ID", "ND", "SD", "WY" },
+            { "NE", "CO", "IA", "KS", "MO", "SD", "WY" },
+            { "NV", "AZ", "CA", "ID", "OR", "UT" },
+            { "NH", "MA", "ME", "VT" },
+            { "NJ", "DE", "NY", "PA" },
+            { "NM", "AZ", "CO", "OK", "TX" },
+            { "NY", "CT", "MA", "NJ", "PA", "VT" },
+            { "NC", "GA", "SC", "TN", "VA" },
+            { "ND", "MN", "MT", "SD" },
+            { "OH", "IN", "KY", "MI", "PA", "WV" },
+            { "OK", "AR", "CO", "KS", "MO", "NM", "TX" },
+            { "OR", "CA", "ID", "NV", "WA" },
+            { "PA", "DE", "MD", "NJ", "NY", "OH", "WV" },
+            { "RI", "CT", "MA" },
+            { "SC", "GA", "NC" },
+            { "SD", "IA", "MN", "MT", "ND", "NE", "WY" },
+            { "TN", "AL", "AR", "GA", "KY", "MO", "MS", "NC", "VA" },
+            { "TX", "AR", "LA", "NM", "OK" },
+            { "UT", "AZ", "CO", "ID", "NV", "WY" },
+            { "VT", "MA", "NH", "NY" },
+            { "VA", "DC", "KY", "MD", "NC", "TN", "WV" },
+            { "WA", "ID", "OR" },
+            { "WV", "KY", "MD", "OH", "PA", "VA" },
+            { "WI", "IA", "IL", "MI", "MN" },
+            { "WY", "CO", "ID", "MT", "NE", "SD", "UT" },
+    };
+
+    /**
+     * A neighbour further off the direction of travel than this isn't a guess worth acting on
+     */
+    private static final double MAX_BEARING_OFF_DEGREES = 60;
+
+    private static final int[] NONE = new int[0];
+
+    /**
+     * Neighbour ids by {@link StateResolver} id, Alaska, Hawaii and the territories have none
+     */
+    private static final int[][] NEIGHBOURS = new int[StateResolver.count()][];
+
+    static {
+        for (String[] border : BORDERS) {
+            int[] neighbours = new int[border.length - 1];
+            for (int i = 1; i < border.length; i++) {
+                neighbours[i - 1] = StateResolver.resolve(border[i]);
+            }
+            NEIGHBOURS[StateResolver.resolve(border[0])] = neighbours;
+        }
+        for (int i = 0; i < NEIGHBOURS.length; i++) {
+            if (NEIGHBOURS[i] == null) {
+                NEIGHBOURS[i] = NONE;
+            }
+        }
+    }
+
+    private StateAdjacency() {
+    }
+
+    /**
+     * @param id {@link StateResolver} id of the state
+     * @return ids of the states sharing a land border with it, not to be modified
+     */
+    public static int[] neighboursOf(int id) {
+        return id < 0 || id >= NEIGHBOURS.length ? NONE : NEIGHBOURS[id];
+    }
+
+    /**
+     * Guess which neighbour a driver is heading into. A neighbour whose box holds the point the
+     * driver reaches after the lookahead wins, otherwise the neighbour lying closest to the
+     * direction of travel, as long as it isn't too far off it.
+     *
+     * @param state the driver is in
+     * @param latitude of the driver
+     * @param longitude of the driver
+     * @param bearing of travel, in degrees east of true north
+     * @param lookaheadKm how far ahead to look
+     * @return canonical name of the likely next state, null if there is no good guess
+     */
+    public static String predictNext(String state, double latitude, double longitude, double bearing, double lookaheadKm) {
+        int[] neighbours = neighboursOf(StateResolver.resolve(state));
+        double aheadLatitude = StateBounds.latitudeAfter(latitude, bearing, lookaheadKm);
+        double aheadLongitude = StateBounds.longitudeAfter(latitude, longitude, bearing, lookaheadKm);
+
+        int best = StateResolver.UNKNOWN;
+        boolean bestContains = false;
+        double bestOff = MAX_BEARING_OFF_DEGREES;
+        for (int neighbour : neighbours) {
+            boolean contains = StateBounds.contains(neighbour, aheadLatitude, aheadLongitude);
+            double off = angleBetween(bearing, StateBounds.bearingTo(neighbour, latitude, longitude));
+            if (contains && !bestContains) {
+                best = neighbour;
+                bestContains = true;
+                bestOff = off;
+            } else if (contains == bestContains && off <= bestOff) {
+                best = neighbour;
+                bestOff = off;
+            }
+        }
+        return best == StateResolver.UNKNOWN ? null : StateResolver.nameOf(best);
+    }
+
+    /**
+     * @return the smaller angle between two bearings, in degrees
+     */
+    private static double angleBetween(double a, double b) {
+        double difference = Math.abs(a - b) % 360;
+        return difference > 180 ? 360 - difference : difference;
+    }
+}
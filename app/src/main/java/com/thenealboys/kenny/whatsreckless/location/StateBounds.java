@@ -0,0 +1,197 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.location;
+
+/**
+ * Bundled bounding boxes of the US States, used to decide whether a coarse fix is far enough from
+ * any border to settle the state without turning on GPS. Boxes overlap along irregular borders,
+ * so they can only say a point is clear of a border, never which state it's in. Only the boxes of
+ * the states listed by {@link StateAdjacency} as sharing a border are consulted.
+ */
+public final class StateBounds {
+
+    private static final double KM_PER_DEGREE_LAT = 111.32;
+
+    /**
+     * South, west, north and east edge of each state, in degrees, indexed by
+     * {@link StateResolver} id. Alaska stops at the antimeridian. The territories that follow
+     * have no land borders and no boxes.
+     */
+    private static final double[] BOXES = {
+            30.22, -88.47, 35.01, -84.89,   // Alabama
+            51.21, -179.15, 71.39, -129.98, // Alaska
+            31.33, -114.82, 37.00, -109.05, // Arizona
+            33.00, -94.62, 36.50, -89.64,   // Arkansas
+            32.53, -124.41, 42.01, -114.13, // California
+            36.99, -109.06, 41.00, -102.04, // Colorado
+            40.98, -73.73, 42.05, -71.79,   // Connecticut
+            38.45, -75.79, 39.84, -75.05,   // Delaware
+            38.79, -77.12, 38.99, -76.91,   // District of Columbia
+            24.52, -87.63, 31.00, -80.03,   // Florida
+            30.36, -85.61, 35.00, -80.84,   // Georgia
+            18.91, -178.33, 28.40, -154.81, // Hawaii
+            41.99, -117.24, 49.00, -111.04, // Idaho
+            36.97, -91.51, 42.51, -87.50,   // Illinois
+            37.77, -88.10, 41.76, -84.78,   // Indiana
+            40.38, -96.64, 43.50, -90.14,   // Iowa
+            36.99, -102.05, 40.00, -94.59,  // Kansas
+            36.50, -89.57, 39.15, -81.96,   // Kentucky
+            28.93, -94.04, 33.02, -88.82,   // Louisiana
+            43.06, -71.08, 47.46, -66.95,   // Maine
+            37.91, -79.49, 39.72, -75.05,   // Maryland
+            41.24, -73.51, 42.89, -69.93,   // Massachusetts
+            41.70, -90.42, 48.31, -82.41,   // Michigan
+            43.50, -97.24, 49.38, -89.49,   // Minnesota
+            30.17, -91.66, 35.00, -88.10,   // Mississippi
+            35.99, -95.77, 40.61, -89.10,   // Missouri
+            44.36, -116.05, 49.00, -104.04, // Montana
+            40.00, -104.05, 43.00, -95.31,  // Nebraska
+            35.00, -120.01, 42.00, -114.04, // Nevada
+            42.70, -72.56, 45.31, -70.61,   // New Hampshire
+            38.93, -75.56, 41.36, -73.89,   // New Jersey
+            31.33, -109.05, 37.00, -103.00, // New Mexico
+            40.50, -79.76, 45.02, -71.86,   // New York
+            33.84, -84.32, 36.59, -75.46,   // North Carolina
+            45.94, -104.05, 49.00, -96.55,  // North Dakota
+            38.40, -84.82, 41.98, -80.52,   // Ohio
+            33.62, -103.00, 37.00, -94.43,  // Oklahoma
+            41.99, -124.57, 46.29, -116.46, // Oregon
+            39.72, -80.52, 42.27, -74.69,   // Pennsylvania
+            41.15, -71.91, 42.02, -71.12,   // Rhode Island
+            32.03, -83.35, 35.22, -78.54,   // South Carolina
+            42.48, -104.06, 45.95, -96.44,  // South Dakota
+            34.98, -90.31, 36.68, -81.65,   // Tennessee
+            25.84, -106.65, 36.50, -93.51,  // Texas
+            37.00, -114.05, 42.00, -109.04, // Utah
+            42.73, -73.44, 45.02, -71.46,   // Vermont
+            36.54, -83.68, 39.47, -75.24,   // Virginia
+            45.54, -124.85, 49.00, -116.92, // Washington
+            37.20, -82.64, 40.64, -77.72,   // West Virginia
+            42.49, -92.89, 47.31, -86.25,   // Wisconsin
+            40.99, -111.06, 45.01, -104.05, // Wyoming
+    };
+
+    private static final int BOX_COUNT = BOXES.length / 4;
+
+    private StateBounds() {
+    }
+
+    /**
+     * Whether a point could be across a border from the given state. True when the point is
+     * outside the state's own box by more than the margin, so the state is stale, or within the
+     * margin of the box of a state it shares a land border with. Coasts, and states whose boxes
+     * overlap without sharing a border, don't count.
+     *
+     * @param state the point was resolved to
+     * @param latitude of the point
+     * @param longitude of the point
+     * @param marginKm uncertainty to allow for, usually the fix's accuracy plus some slack
+     * @return false only when the point is clearly inside the state
+     */
+    public static boolean isNearBorder(String state, double latitude, double longitude, double marginKm) {
+        int own = StateResolver.resolve(state);
+        if (own == StateResolver.UNKNOWN) {
+            return true;
+        }
+        if (own >= BOX_COUNT) {
+            return false;
+        }
+        double marginLat = marginKm / KM_PER_DEGREE_LAT;
+        double marginLon = marginKm / (KM_PER_DEGREE_LAT * Math.max(0.1, Math.cos(Math.toRadians(latitude))));
+
+        // Already out of the state
+        if (!isWithin(own, latitude, longitude, marginLat, marginLon)) {
+            return true;
+        }
+
+        // Close to, or inside, a neighbour
+        for (int neighbour : StateAdjacency.neighboursOf(own)) {
+            if (isWithin(neighbour, latitude, longitude, marginLat, marginLon)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the point is inside the state's box grown by the margins, false for states
+     * with no box
+     */
+    private static boolean isWithin(int id, double latitude, double longitude, double marginLat, double marginLon) {
+        if (id < 0 || id >= BOX_COUNT) {
+            return false;
+        }
+        int box = id * 4;
+        return latitude > BOXES[box] - marginLat && latitude < BOXES[box + 2] + marginLat
+                && longitude > BOXES[box + 1] - marginLon && longitude < BOXES[box + 3] + marginLon;
+    }
+
+    /**
+     * @param id {@link StateResolver} id of the state
+     * @param latitude of the point
+     * @param longitude of the point
+     * @return true if the point is inside the state's box, false for states with no box
+     */
+    static boolean contains(int id, double latitude, double longitude) {
+        if (id < 0 || id >= BOX_COUNT) {
+            return false;
+        }
+        int box = id * 4;
+        return latitude >= BOXES[box] && latitude <= BOXES[box + 2]
+                && longitude >= BOXES[box + 1] && longitude <= BOXES[box + 3];
+    }
+
+    /**
+     * Initial bearing from a point to the middle of a state's box
+     *
+     * @param id {@link StateResolver} id of the state
+     * @param latitude of the point
+     * @param longitude of the point
+     * @return the bearing in degrees east of true north, NaN for states with no box
+     */
+    static double bearingTo(int id, double latitude, double longitude) {
+        if (id < 0 || id >= BOX_COUNT) {
+            return Double.NaN;
+        }
+        int box = id * 4;
+        double dLat = (BOXES[box] + BOXES[box + 2]) / 2 - latitude;
+        double dLon = ((BOXES[box + 1] + BOXES[box + 3]) / 2 - longitude) * Math.cos(Math.toRadians(latitude));
+        double bearing = Math.toDegrees(Math.atan2(dLon, dLat));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+
+    /**
+     * @param latitude of the start
+     * @param bearing to travel, in degrees east of true north
+     * @param distanceKm to travel
+     * @return the latitude after travelling, good enough for distances well under 100km
+     */
+    static double latitudeAfter(double latitude, double bearing, double distanceKm) {
+        return latitude + distanceKm * Math.cos(Math.toRadians(bearing)) / KM_PER_DEGREE_LAT;
+    }
+
+    /**
+     * @param latitude of the start
+     * @param longitude of the start
+     * @param bearing to travel, in degrees east of true north
+     * @param distanceKm to travel
+     * @return the longitude after travelling, good enough for distances well under 100km
+     */
+    static double longitudeAfter(double latitude, double longitude, double bearing, double distanceKm) {
+        return longitude + distanceKm * Math.sin(Math.toRadians(bearing))
+                / (KM_PER_DEGREE_LAT * Math.max(0.1, Math.cos(Math.toRadians(latitude))));
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.location;
+
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the different ways a US State is named to one canonical id: postal abbreviations, English
+ * and localized names as returned by the geocoder, and Wikipedia section anchors. All the lookup
+ * keys are computed once, so resolving is a normalization and a hash lookup. Covers the 50 States,
+ * DC and the inhabited territories. Misses are counted in {@link Diagnostics}.
+ * <p>
+ * The ids are persisted by the trip journal and index the {@link StateBounds} boxes, so entries
+ * are only ever appended.
+ */
+public final class StateResolver {
+
+    /**
+     * Returned for text that doesn't name a state
+     */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * Abbreviation, canonical name, then any localized names
+     */
+    private static final String[][] STATES = {
+            { "AL", "Alabama" },
+            { "AK", "Alaska" },
+            { "AZ", "Arizona" },
+            { "AR", "Arkansas" },
+            { "CA", "California", "Californie" },
+            { "CO", "Colorado" },
+            { "CT", "Connecticut" },
+            { "DE", "Delaware" },
+            { "DC", "District of Columbia", "Washington DC", "Washington D.C.", "Distrito de Columbia", "District de Columbia" },
+            { "FL", "Florida", "Floride" },
+            { "GA", "Georgia", "Géorgie" },
+            { "HI", "Hawaii", "Hawái", "Hawaï" },
+            { "ID", "Idaho" },
+            { "IL", "Illinois" },
+            { "IN", "Indiana" },
+            { "IA", "Iowa" },
+            { "KS", "Kansas" },
+            { "KY", "Kentucky" },
+            { "LA", "Louisiana", "Luisiana", "Louisiane" },
+            { "ME", "Maine" },
+            { "MD", "Maryland" },
+            { "MA", "Massachusetts" },
+            { "MI", "Michigan" },
+            { "MN", "Minnesota" },
+            { "MS", "Mississippi", "Misisipi" },
+            { "MO", "Missouri", "Misuri" },
+            { "MT", "Montana" },
+            { "NE", "Nebraska" },
+            { "NV", "Nevada" },
+            { "NH", "New Hampshire", "Nuevo Hampshire" },
+            { "NJ", "New Jersey", "Nueva Jersey" },
+            { "NM", "New Mexico", "Nuevo México", "Nouveau-Mexique" },
+            { "NY", "New York", "Nueva York", "État de New York" },
+            { "NC", "North Carolina", "Carolina del Norte", "Caroline du Nord" },
+            { "ND", "North Dakota", "Dakota del Norte", "Dakota du Nord" },
+            { "OH", "Ohio" },
+            { "OK", "Oklahoma" },
+            { "OR", "Oregon", "Oregón" },
+            { "PA", "Pennsylvania", "Pensilvania", "Pennsylvanie" },
+            { "RI", "Rhode Island" },
+            { "SC", "South Carolina", "Carolina del Sur", "Caroline du Sud" },
+            { "SD", "South Dakota", "Dakota del Sur", "Dakota du Sud" },
+            { "TN", "Tennessee" },
+            { "TX", "Texas" },
+            { "UT", "Utah" },
+            { "VT", "Vermont" },
+            { "VA", "Virginia", "Virginie" },
+            { "WA", "Washington", "Washington State" },
+            { "WV", "West Virginia", "Virginia Occidental", "Virginie-Occidentale" },
+            { "WI", "Wisconsin" },
+            { "WY", "Wyoming" },
+            { "PR", "Puerto Rico", "Porto Rico" },
+            { "GU", "Guam" },
+            { "VI", "U.S. Virgin Islands", "United States Virgin Islands", "Islas Vírgenes de los Estados Unidos", "Îles Vierges des États-Unis" },
+            { "AS", "American Samoa", "Samoa Americana", "Samoa américaines" },
+            { "MP", "Northern Mariana Islands", "Islas Marianas del Norte", "Îles Mariannes du Nord" },
+    };
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[\\s_.,-]+");
+
+    private static final Map<String, Integer> LOOKUP = new HashMap<String, Integer>();
+
+    static {
+        for (int id = 0; id < STATES.length; id++) {
+            for (String name : STATES[id]) {
+                LOOKUP.put(normalize(name), id);
+            }
+            LOOKUP.put(normalize(anchorOf(id)), id);
+        }
+    }
+
+    private StateResolver() {
+    }
+
+    /**
+     * @param text an abbreviation, a name in any of the known languages or a Wikipedia anchor
+     * @return the state's id, {@link #UNKNOWN} if the text doesn't name one
+     */
+    public static int resolve(String text) {
+        Integer id = text == null ? null : LOOKUP.get(normalize(text));
+        if (id == null) {
+            Diagnostics.increment(Diagnostics.STATE_RESOLVE_MISSES);
+            return UNKNOWN;
+        }
+        return id;
+    }
+
+    /**
+     * @param text naming a state in any of the known forms
+     * @return the state's canonical name, null if the text doesn't name one
+     */
+    public static String canonicalName(String text) {
+        return nameOf(resolve(text));
+    }
+
+    /**
+     * @return how many ids there are
+     */
+    public static int count() {
+        return STATES.length;
+    }
+
+    /**
+     * @param id of the state
+     * @return the canonical English name, as used in the cache and the state list; null for an
+     * unknown id
+     */
+    public static String nameOf(int id) {
+        return id >= 0 && id < STATES.length ? STATES[id][1] : null;
+    }
+
+    /**
+     * @param id of the state
+     * @return the two letter postal abbreviation, null for an unknown id
+     */
+    public static String abbreviationOf(int id) {
+        return id >= 0 && id < STATES.length ? STATES[id][0] : null;
+    }
+
+    /**
+     * @param id of the state
+     * @return the id of the state's section in the Wikipedia article, null for an unknown id
+     */
+    public static String anchorOf(int id) {
+        String name = nameOf(id);
+        return name == null ? null : name.replace(' ', '_');
+    }
+
+    /**
+     * Lower case, without accents, with any run of spaces, underscores or punctuation collapsed
+     * to one space
+     */
+    private static String normalize(String text) {
+        String stripped = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return SEPARATORS.matcher(stripped.toLowerCase(Locale.US)).replaceAll(" ").trim();
+    }
+}
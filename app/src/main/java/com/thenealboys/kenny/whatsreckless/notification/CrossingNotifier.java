@@ -0,0 +1,196 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.notification;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+import com.thenealboys.kenny.whatsreckless.MainActivity;
+import com.thenealboys.kenny.whatsreckless.R;
+import com.thenealboys.kenny.whatsreckless.data.RecordCache;
+import com.thenealboys.kenny.whatsreckless.data.TaskScheduler;
+import com.thenealboys.kenny.whatsreckless.journal.TripJournal;
+import com.thenealboys.kenny.whatsreckless.location.LocationLookup;
+import com.thenealboys.kenny.whatsreckless.location.StateChangeListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Posts a heads up notification with the new state's penalties when a state line is crossed. The
+ * notification is built only from the records already in the {@link RecordCache}; it needs no
+ * Activity, no WebView and no network, so it can be driven by any {@link StateChangeListener}
+ * source.
+ */
+public class CrossingNotifier implements StateChangeListener {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = CrossingNotifier.class.getSimpleName();
+
+    /**
+     * Only one crossing notification is shown at a time, a new crossing replaces it
+     */
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * Column holding the state name, already in the notification title
+     */
+    private static final String STATE_COLUMN = "State";
+
+    private final Context context;
+
+    private final LocationLookup lookup;
+
+    /**
+     * Where crossings are logged, null for the process wide journal
+     */
+    private final TripJournal journal;
+
+    /**
+     * @param context any context, only the application context is kept
+     * @param lookup the crossings come from, for their position
+     */
+    public CrossingNotifier(Context context, LocationLookup lookup) {
+        this(context, lookup, null);
+    }
+
+    /**
+     * @param context any context, only the application context is kept
+     * @param lookup the crossings come from, for their position
+     * @param journal to log crossings in, null for the process wide one
+     */
+    public CrossingNotifier(Context context, LocationLookup lookup, TripJournal journal) {
+        this.context = context.getApplicationContext();
+        this.lookup = lookup;
+        this.journal = journal;
+    }
+
+    @Override
+    public void onStateLocationChanged(final String oldState, final String newState) {
+        final long time = System.currentTimeMillis();
+        final Location position = lookup.getCurrentLocation();
+
+        // Reading the records is quick but still disk I/O, keep it off the caller's thread
+        TaskScheduler.get().submit(TaskScheduler.CROSSING, new Runnable() {
+            @Override
+            public void run() {
+                notifyCrossing(oldState, newState);
+                record(time, position, oldState, newState);
+            }
+        });
+    }
+
+    /**
+     * Log the crossing in the {@link TripJournal}, with the version of the record just shown
+     */
+    private void record(long time, Location position, String oldState, String newState) {
+        long version = 0;
+        try {
+            Map<String, String> record = RecordCache.get(context).getRecord(newState);
+            if (record != null && record.get(InformationAsyncTask.RECORD_VERSION) != null) {
+                version = Long.parseLong(record.get(InformationAsyncTask.RECORD_VERSION));
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "No record version for crossing: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Bad record version for crossing: " + e.getMessage());
+        }
+        TripJournal target = journal != null ? journal : TripJournal.get(context);
+        if (position != null) {
+            target.append(time, true, position.getLatitude(), position.getLongitude(),
+                    position.getAccuracy(), oldState, newState, version);
+        } else {
+            target.append(time, false, 0, 0, 0, oldState, newState, version);
+        }
+    }
+
+    private void notifyCrossing(String oldState, String newState) {
+        Map<String, String> oldRecord = null;
+        Map<String, String> newRecord = null;
+        try {
+            RecordCache cache = RecordCache.get(context);
+            oldRecord = cache.getRecord(oldState);
+            newRecord = cache.getRecord(newState);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "No cached records for crossing: " + e.getMessage());
+        }
+
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent contentIntent = PendingIntent.getActivity(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context)
+                .setSmallIcon(R.drawable.ic_info_black_24dp)
+                .setContentTitle(context.getString(R.string.crossing_title, newState))
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true)
+                .setCategory(NotificationCompat.CATEGORY_NAVIGATION)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setDefaults(NotificationCompat.DEFAULT_SOUND);
+
+        if (newRecord == null || newRecord.get(InformationAsyncTask.COLUMN_NAMES) == null) {
+            builder.setContentText(context.getString(R.string.crossing_no_record));
+        } else {
+            List<String> differences = new ArrayList<String>();
+            StringBuilder details = new StringBuilder();
+            for (String column : newRecord.get(InformationAsyncTask.COLUMN_NAMES).split(",")) {
+                if (STATE_COLUMN.equals(column) || InformationAsyncTask.DETAILS.equals(column)) {
+                    continue;
+                }
+                String value = newRecord.get(column);
+                if (value == null || value.isEmpty()) {
+                    continue;
+                }
+                if (details.length() > 0) {
+                    details.append('\n');
+                }
+                details.append(column).append(": ").append(value);
+                if (oldRecord != null && !value.equals(oldRecord.get(column))) {
+                    differences.add(column);
+                }
+            }
+            if (!differences.isEmpty()) {
+                details.append('\n').append(context.getString(R.string.crossing_differences, oldState, join(differences)));
+            }
+            String firstLine = details.indexOf("\n") < 0 ? details.toString() : details.substring(0, details.indexOf("\n"));
+            builder.setContentText(firstLine)
+                    .setStyle(new NotificationCompat.BigTextStyle().bigText(details));
+        }
+
+        NotificationManager manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.notify(NOTIFICATION_ID, builder.build());
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.render;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.safety.Cleaner;
+import org.jsoup.safety.Whitelist;
+
+/**
+ * Rewrites a state's Details section from the article into self contained HTML. Only text
+ * formatting survives: links are unwrapped to their text, and references, images, edit links and
+ * anything else that could make the {@link android.webkit.WebView} fetch something are dropped.
+ */
+public final class DetailsSanitizer {
+
+    /**
+     * Elements removed together with their content
+     */
+    private static final String DROPPED = "sup.reference, .mw-editsection, .noprint, img, audio, video, "
+            + "iframe, object, embed, script, style, link";
+
+    private static final Whitelist ALLOWED = Whitelist.none()
+            .addTags("p", "br", "b", "i", "em", "strong", "u", "small", "sub", "sup",
+                    "ul", "ol", "li", "dl", "dt", "dd", "blockquote",
+                    "table", "thead", "tbody", "tr", "th", "td");
+
+    private DetailsSanitizer() {
+    }
+
+    /**
+     * @param details the Details section, left untouched
+     * @return the sanitized HTML fragment
+     */
+    public static String sanitize(Element details) {
+        Document fragment = Document.createShell("");
+        fragment.body().appendChild(details.clone());
+        fragment.select(DROPPED).remove();
+        fragment.select("a").unwrap();
+
+        Document clean = new Cleaner(ALLOWED).clean(fragment);
+        clean.outputSettings().prettyPrint(false);
+        return clean.body().html();
+    }
+}
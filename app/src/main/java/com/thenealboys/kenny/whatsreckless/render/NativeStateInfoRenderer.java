@@ -0,0 +1,69 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.render;
+
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.widget.TextView;
+
+import com.thenealboys.kenny.whatsreckless.R;
+
+import java.util.Map;
+
+/**
+ * Renders the state info as a {@link RecyclerView} of column name/value rows. Much lighter than
+ * the {@link WebViewStateInfoRenderer}, intended for low end devices.
+ */
+public class NativeStateInfoRenderer implements StateInfoRenderer {
+
+    private final View container;
+    private final RecyclerView list;
+    private final TextView message;
+    private final StateInfoAdapter adapter;
+
+    /**
+     * @param container the inflated stub_state_info_list layout
+     */
+    public NativeStateInfoRenderer(View container) {
+        this.container = container;
+        this.list = (RecyclerView) container.findViewById(R.id.stateInfoList);
+        this.message = (TextView) container.findViewById(R.id.stateInfoMessage);
+        this.adapter = new StateInfoAdapter();
+
+        list.setLayoutManager(new LinearLayoutManager(container.getContext()));
+        list.setAdapter(adapter);
+    }
+
+    @Override
+    public void showMessage(String text) {
+        adapter.clear();
+        message.setText(text);
+        message.setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    public void showStateInfo(Map<String, String> stateInfo, String renderedPage) {
+        message.setVisibility(View.GONE);
+        adapter.setStateInfo(stateInfo);
+        list.scrollToPosition(0);
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        container.setVisibility(visible ? View.VISIBLE : View.GONE);
+    }
+}
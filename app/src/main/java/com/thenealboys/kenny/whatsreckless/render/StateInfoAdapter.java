@@ -0,0 +1,116 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.render;
+
+import android.support.v7.widget.RecyclerView;
+import android.text.Html;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.RelativeSizeSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+import com.thenealboys.kenny.whatsreckless.R;
+import com.thenealboys.kenny.whatsreckless.sources.LawAggregator;
+
+import java.util.Map;
+
+/**
+ * Adapter backing the {@link NativeStateInfoRenderer}, one row per column of the state info
+ */
+class StateInfoAdapter extends RecyclerView.Adapter<StateInfoAdapter.ViewHolder> {
+
+    /**
+     * The column holding the HTML details, rendered as spanned text
+     */
+    private static final String DETAILS_COLUMN = "Details";
+
+    /**
+     * Size of the note naming where a value came from, relative to the value
+     */
+    private static final float SOURCE_TEXT_SCALE = 0.8f;
+
+    private CharSequence[] names = new CharSequence[0];
+    private CharSequence[] values = new CharSequence[0];
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView name;
+        final TextView value;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            name = (TextView) itemView.findViewById(R.id.stateInfoColumnName);
+            value = (TextView) itemView.findViewById(R.id.stateInfoColumnValue);
+        }
+    }
+
+    /**
+     * Replace the displayed rows. The values are converted once here rather than on every bind.
+     *
+     * @param stateInfo column name to value map
+     */
+    void setStateInfo(Map<String, String> stateInfo) {
+        String[] columnNames = stateInfo.get( InformationAsyncTask.COLUMN_NAMES ).split( "," );
+        names = new CharSequence[columnNames.length];
+        values = new CharSequence[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            String value = stateInfo.get(columnNames[i]);
+            names[i] = columnNames[i];
+            if (value == null) {
+                values[i] = "";
+            } else if (DETAILS_COLUMN.equals(columnNames[i])) {
+                values[i] = Html.fromHtml(value);
+            } else {
+                values[i] = value;
+            }
+            String source = LawAggregator.sourceOf(stateInfo, columnNames[i]);
+            if (source != null) {
+                // Smaller and on its own line, like the web page's source note
+                SpannableString note = new SpannableString(source);
+                note.setSpan(new RelativeSizeSpan(SOURCE_TEXT_SCALE), 0, source.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                values[i] = TextUtils.concat(values[i], "\n", note);
+            }
+        }
+        notifyDataSetChanged();
+    }
+
+    void clear() {
+        names = new CharSequence[0];
+        values = new CharSequence[0];
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item_state_info, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        holder.name.setText(names[position]);
+        holder.value.setText(values[position]);
+    }
+
+    @Override
+    public int getItemCount() {
+        return names.length;
+    }
+}
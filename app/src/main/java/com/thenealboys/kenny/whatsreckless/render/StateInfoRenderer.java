@@ -0,0 +1,54 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.render;
+
+import java.util.Map;
+
+/**
+ * Displays the reckless driving information produced by
+ * {@link com.thenealboys.kenny.whatsreckless.InformationAsyncTask}.
+ */
+public interface StateInfoRenderer {
+
+	/**
+	 * Value of the render_mode preference for the {@link WebViewStateInfoRenderer}
+	 */
+	String MODE_WEBVIEW = "webview";
+
+	/**
+	 * Value of the render_mode preference for the {@link NativeStateInfoRenderer}
+	 */
+	String MODE_NATIVE = "native";
+
+	/**
+	 * Show a status message (loading, failure, etc) in place of the state info
+	 * @param message to show
+	 */
+	void showMessage(String message);
+
+	/**
+	 * Show the information for a state
+	 * @param stateInfo column name to value map, ordered by the COLUMN_NAMES key
+	 * @param renderedPage page previously rendered from stateInfo, or null to render it now
+	 */
+	void showStateInfo(Map<String, String> stateInfo, String renderedPage);
+
+	/**
+	 * Show or hide the view backing this renderer
+	 * @param visible true to show the view
+	 */
+	void setVisible(boolean visible);
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.render;
+
+import android.view.View;
+import android.webkit.WebView;
+
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+import com.thenealboys.kenny.whatsreckless.sources.LawAggregator;
+
+import java.util.Map;
+
+/**
+ * Renders the state info as an HTML table in a {@link WebView}
+ */
+public class WebViewStateInfoRenderer implements StateInfoRenderer {
+
+    private final WebView webview;
+
+    /**
+     * Kept small and inline, so the pages need nothing else
+     */
+    private static final String STYLE = "<style>"
+            + "body{margin:8px;font-family:sans-serif;font-size:15px;line-height:1.4}"
+            + "table{border-collapse:collapse;width:100%}"
+            + "td{border-bottom:1px solid #ddd;padding:6px;vertical-align:top}"
+            + "td:first-child{font-weight:bold;width:30%}"
+            + "p{margin:0 0 8px}"
+            + ".src{color:#777;font-size:12px}"
+            + "</style>";
+
+    /**
+     * The pages are self contained, nothing they load should come from the network
+     */
+    private static final String BASE_URL = "about:blank";
+
+    public WebViewStateInfoRenderer(WebView webview) {
+        this.webview = webview;
+        webview.getSettings().setBlockNetworkLoads(true);
+        webview.getSettings().setJavaScriptEnabled(false);
+    }
+
+    /**
+     * Builds the HTML page for the state info
+     *
+     * @param stateInfo column name to value map
+     * @return the page as a {@link String}
+     */
+    public static String toHtml(Map<String, String> stateInfo) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<html><head><meta charset=\"utf-8\">").append(STYLE).append("</head><body><table>");
+
+        // Iteratively add each row to the table header to the row
+        String[] columnNames = stateInfo.get( InformationAsyncTask.COLUMN_NAMES ).split( "," );
+        for ( String columnName : columnNames ) {
+            String value = stateInfo.get(columnName) == null ? "" : stateInfo.get(columnName);
+            sb.append("<tr><td>");
+            escape(sb, columnName);
+            sb.append("</td><td>");
+            if (InformationAsyncTask.DETAILS.equals(columnName)) {
+                // Already reduced to safe markup by the DetailsSanitizer
+                sb.append(value);
+            } else {
+                // Plain text, some of it from other sites
+                escape(sb, value);
+            }
+            // Values merged in from other law sources say where they came from
+            String source = LawAggregator.sourceOf(stateInfo, columnName);
+            if (source != null) {
+                sb.append("<div class=\"src\">");
+                escape(sb, source);
+                sb.append("</div>");
+            }
+            sb.append("</td></tr>");
+        }
+        sb.append("</table></body></html>");
+        return sb.toString();
+    }
+
+    /**
+     * Append text to the page so it reads as text, never as markup
+     */
+    static void escape(StringBuilder sb, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                case '\'':
+                    sb.append("&#39;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void showMessage(String message) {
+        webview.loadDataWithBaseURL(BASE_URL, "<html>" + STYLE + message + "</html>", "text/html", "UTF-8", null);
+    }
+
+    @Override
+    public void showStateInfo(Map<String, String> stateInfo, String renderedPage) {
+        webview.loadDataWithBaseURL(BASE_URL, renderedPage != null ? renderedPage : toHtml(stateInfo), "text/html", "UTF-8", null);
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        webview.setVisibility(visible ? View.VISIBLE : View.GONE);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.rules;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles a state's penalty text into {@link PenaltyRules}. The text is free form, so this looks
+ * for speeds ("20 mph over the limit", "exceeding the limit by 20 mph", "over 80 mph") and dollar
+ * amounts rather than relying on any particular wording. Speeds that are posted limits ("in a
+ * 55 mph zone") are skipped. When a state gives several thresholds, the lowest of each kind wins.
+ */
+public final class PenaltyRuleCompiler {
+
+    private static final Pattern SPEED = Pattern.compile("(\\d{1,3})\\s*(?:mph|miles per hour|miles an hour)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern AMOUNT = Pattern.compile("\\$\\s*(\\d{1,3}(?:,\\d{3})+|\\d+)");
+
+    /**
+     * Words following a speed that make it relative to the posted limit
+     */
+    private static final Pattern RELATIVE = Pattern.compile("^\\W*(?:or more\\s+)?(?:over|above|in excess of|faster than|more than)\\s+(?:the\\s+)?(?:posted\\s+|maximum\\s+)?(?:speed\\s+)?limit", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Words leading up to a speed that make it relative to the posted limit
+     */
+    private static final Pattern RELATIVE_BEFORE = Pattern.compile("(?:(?:exceed(?:s|ed|ing)?|over|above|in excess of|faster than|more than)\\s+(?:the\\s+)?(?:posted\\s+|maximum\\s+)?(?:speed\\s+)?limit|speeding)\\s+by\\s+(?:more than\\s+|at least\\s+)?$", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Words around a speed that make it a posted limit, "55 mph zone" or "the limit is 55 mph",
+     * rather than a threshold
+     */
+    private static final Pattern POSTED_AFTER = Pattern.compile("^\\W*(?:speed\\s+)?(?:zone|limit)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern POSTED_BEFORE = Pattern.compile("(?:zone|limit)\\s+(?:is|of)\\s+$", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * How far around a speed to look for the wording above
+     */
+    private static final int LOOKAHEAD = 48;
+    private static final int LOOKBEHIND = 48;
+
+    /**
+     * Absolute thresholds below this would flag ordinary highway driving, so a lower one is a
+     * misread rather than a rule
+     */
+    static final float MIN_ABSOLUTE_MPH = 60;
+
+    private PenaltyRuleCompiler() {
+    }
+
+    /**
+     * @param columns names of the penalty columns
+     * @param record the state's record
+     * @return the compiled rules
+     */
+    public static PenaltyRules compile(String[] columns, Map<String, String> record) {
+        float absolute = Float.NaN;
+        float overLimit = Float.NaN;
+        int fineMin = -1;
+        int fineMax = -1;
+
+        for (String column : columns) {
+            String text = record.get(column);
+            if (text == null || text.isEmpty()) {
+                continue;
+            }
+            String name = column.toLowerCase(Locale.US);
+
+            if (name.contains("fine")) {
+                Matcher amount = AMOUNT.matcher(text);
+                while (amount.find()) {
+                    int dollars;
+                    try {
+                        dollars = Integer.parseInt(amount.group(1).replace(",", ""));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    fineMin = fineMin < 0 ? dollars : Math.min(fineMin, dollars);
+                    fineMax = Math.max(fineMax, dollars);
+                }
+            } else {
+                Matcher speed = SPEED.matcher(text);
+                while (speed.find()) {
+                    float mph = Float.parseFloat(speed.group(1));
+                    String before = text.substring(Math.max(0, speed.start() - LOOKBEHIND), speed.start());
+                    String after = text.substring(speed.end(), Math.min(text.length(), speed.end() + LOOKAHEAD));
+                    if (POSTED_AFTER.matcher(after).find() || POSTED_BEFORE.matcher(before).find()) {
+                        continue;
+                    }
+                    if (RELATIVE_BEFORE.matcher(before).find() || RELATIVE.matcher(after).find()) {
+                        overLimit = Float.isNaN(overLimit) ? mph : Math.min(overLimit, mph);
+                    } else if (mph >= MIN_ABSOLUTE_MPH) {
+                        absolute = Float.isNaN(absolute) ? mph : Math.min(absolute, mph);
+                    }
+                }
+            }
+        }
+        return new PenaltyRules(absolute, overLimit, fineMin, fineMax);
+    }
+}
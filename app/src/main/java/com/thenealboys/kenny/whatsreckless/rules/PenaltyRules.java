@@ -0,0 +1,141 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.rules;
+
+/**
+ * A state's reckless driving thresholds and fine band, compiled from the penalty text by the
+ * {@link PenaltyRuleCompiler}. Evaluating a speed is plain arithmetic on primitive fields, so it
+ * can run on every fix without allocating.
+ */
+public final class PenaltyRules {
+
+    /**
+     * Key the compiled rules are stored under in a state's record
+     */
+    public static final String RECORD_KEY = "rules";
+
+    /**
+     * Results of {@link #evaluate(float, float)}
+     */
+    public static final int BELOW_THRESHOLD = 0;
+    public static final int RECKLESS = 1;
+
+    /**
+     * Rules for a state with no usable thresholds, never reckless
+     */
+    public static final PenaltyRules NONE = new PenaltyRules(Float.NaN, Float.NaN, -1, -1);
+
+    private static final float METERS_PER_SECOND_TO_MPH = 2.23694f;
+
+    /**
+     * Speed that is reckless regardless of the limit, NaN if the state has none
+     */
+    final float absoluteMph;
+
+    /**
+     * Speed over the posted limit that is reckless, NaN if the state has none
+     */
+    final float overLimitMph;
+
+    /**
+     * Lowest and highest fine mentioned, -1 if none
+     */
+    final int fineMin;
+    final int fineMax;
+
+    PenaltyRules(float absoluteMph, float overLimitMph, int fineMin, int fineMax) {
+        this.absoluteMph = absoluteMph;
+        this.overLimitMph = overLimitMph;
+        this.fineMin = fineMin;
+        this.fineMax = fineMax;
+    }
+
+    /**
+     * @param speedMetersPerSecond current speed, as given by {@link android.location.Location#getSpeed()}
+     * @param postedLimitMph the speed limit assumed for relative thresholds
+     * @return {@link #RECKLESS} if the speed is over either threshold, {@link #BELOW_THRESHOLD} otherwise
+     */
+    public int evaluate(float speedMetersPerSecond, float postedLimitMph) {
+        return thresholdMph(postedLimitMph) <= speedMetersPerSecond * METERS_PER_SECOND_TO_MPH ? RECKLESS : BELOW_THRESHOLD;
+    }
+
+    /**
+     * @param postedLimitMph the speed limit assumed for relative thresholds
+     * @return the lowest reckless speed, {@link Float#POSITIVE_INFINITY} if there isn't one
+     */
+    public float thresholdMph(float postedLimitMph) {
+        float threshold = Float.POSITIVE_INFINITY;
+        if (!Float.isNaN(absoluteMph)) {
+            threshold = absoluteMph;
+        }
+        if (!Float.isNaN(overLimitMph)) {
+            threshold = Math.min(threshold, postedLimitMph + overLimitMph);
+        }
+        return threshold;
+    }
+
+    /**
+     * @param speedMetersPerSecond a speed from {@link android.location.Location#getSpeed()}
+     * @return the speed in mph
+     */
+    public static float toMph(float speedMetersPerSecond) {
+        return speedMetersPerSecond * METERS_PER_SECOND_TO_MPH;
+    }
+
+    public boolean hasThreshold() {
+        return !Float.isNaN(absoluteMph) || !Float.isNaN(overLimitMph);
+    }
+
+    public int getFineMin() {
+        return fineMin;
+    }
+
+    public int getFineMax() {
+        return fineMax;
+    }
+
+    /**
+     * @return the rules in the compact form stored in the record
+     */
+    public String encode() {
+        return (Float.isNaN(absoluteMph) ? "" : String.valueOf(absoluteMph)) + ';'
+                + (Float.isNaN(overLimitMph) ? "" : String.valueOf(overLimitMph)) + ';'
+                + fineMin + ';' + fineMax;
+    }
+
+    /**
+     * @param encoded produced by {@link #encode()}, may be null
+     * @return the rules, {@link #NONE} if they can't be decoded
+     */
+    public static PenaltyRules decode(String encoded) {
+        if (encoded == null) {
+            return NONE;
+        }
+        String[] parts = encoded.split(";", -1);
+        if (parts.length != 4) {
+            return NONE;
+        }
+        try {
+            return new PenaltyRules(
+                    parts[0].isEmpty() ? Float.NaN : Float.parseFloat(parts[0]),
+                    parts[1].isEmpty() ? Float.NaN : Float.parseFloat(parts[1]),
+                    Integer.parseInt(parts[2]),
+                    Integer.parseInt(parts[3]));
+        } catch (NumberFormatException e) {
+            return NONE;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.rules;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.thenealboys.kenny.whatsreckless.data.RecordCache;
+import com.thenealboys.kenny.whatsreckless.location.FixListener;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Checks the speed of every fix against the current state's {@link PenaltyRules} and warns once
+ * when the driver goes over the reckless threshold. The per fix path only compares floats, the
+ * rules are looked up again only when the state changes, or every {@link #RULES_RETRY_MS} while
+ * the state's record isn't cached yet.
+ */
+public class SpeedMonitor implements FixListener {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = SpeedMonitor.class.getSimpleName();
+
+    /**
+     * How far back under the threshold the speed has to drop before warning again
+     */
+    static final float HYSTERESIS_MPH = 5f;
+
+    /**
+     * How long to wait before looking again for the rules of a state whose record wasn't cached
+     * yet, such as on the first drive after installing
+     */
+    static final long RULES_RETRY_MS = 30 * 1000;
+
+    /**
+     * Told when the driver goes over the reckless threshold, on the main thread
+     */
+    public interface Listener {
+        /**
+         * @param state the driver is in
+         * @param speedMph the driver's speed
+         * @param thresholdMph the state's reckless threshold
+         */
+        void onRecklessSpeed(String state, float speedMph, float thresholdMph);
+    }
+
+    private final Context context;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile float postedLimitMph;
+
+    /**
+     * Only touched from the thread fixes are delivered on
+     */
+    private String rulesState = null;
+    private PenaltyRules rules = PenaltyRules.NONE;
+    private boolean rulesFound = false;
+    private long rulesRetryAt = 0;
+    private boolean warned = false;
+
+    /**
+     * @param context any context, only the application context is kept
+     * @param listener to warn
+     * @param postedLimitMph the speed limit assumed for thresholds relative to the limit
+     */
+    public SpeedMonitor(Context context, Listener listener, float postedLimitMph) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+        this.postedLimitMph = postedLimitMph;
+    }
+
+    public void setPostedLimitMph(float postedLimitMph) {
+        this.postedLimitMph = postedLimitMph;
+    }
+
+    @Override
+    public void onFix(Location location, String state) {
+        if (state == null || !location.hasSpeed()) {
+            return;
+        }
+        onSpeed(state, PenaltyRules.toMph(location.getSpeed()));
+    }
+
+    /**
+     * @param state the driver is in
+     * @param speed the driver's speed in mph
+     */
+    void onSpeed(String state, final float speed) {
+        if (!state.equals(rulesState)) {
+            rulesState = state;
+            rulesFound = false;
+            rulesRetryAt = 0;
+            rules = PenaltyRules.NONE;
+            warned = false;
+        }
+        if (!rulesFound && now() >= rulesRetryAt) {
+            PenaltyRules found = lookupRules(state);
+            if (found != null) {
+                rules = found;
+                rulesFound = true;
+            } else {
+                rulesRetryAt = now() + RULES_RETRY_MS;
+            }
+        }
+
+        final float threshold = rules.thresholdMph(postedLimitMph);
+        if (!warned && speed >= threshold) {
+            warned = true;
+            warn(state, speed, threshold);
+        } else if (warned && speed < threshold - HYSTERESIS_MPH) {
+            warned = false;
+        }
+    }
+
+    /**
+     * @param state to look up
+     * @return the state's rules, null if its record isn't cached yet
+     */
+    PenaltyRules lookupRules(String state) {
+        try {
+            Map<String, String> record = RecordCache.get(context).getRecord(state);
+            if (record != null) {
+                return PenaltyRules.decode(record.get(PenaltyRules.RECORD_KEY));
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "No rules for " + state + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Tell the listener on the main thread
+     */
+    void warn(final String state, final float speed, final float threshold) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onRecklessSpeed(state, speed, threshold);
+            }
+        });
+    }
+
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.search;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+import com.thenealboys.kenny.whatsreckless.R;
+import com.thenealboys.kenny.whatsreckless.Warmup;
+import com.thenealboys.kenny.whatsreckless.data.RecordCache;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers "which states..." questions from the {@link SearchIndex}, fully offline. Picking a
+ * result returns the state to the caller in {@link #EXTRA_STATE}.
+ */
+public class SearchActivity extends AppCompatActivity {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = SearchActivity.class.getSimpleName();
+
+    public static final String EXTRA_STATE = "state";
+
+    private SearchIndex index;
+    private EditText query;
+    private TextView message;
+    private ArrayAdapter<String> results;
+    private List<SearchIndex.Result> shown;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_search);
+
+        query = (EditText) findViewById(R.id.searchQuery);
+        message = (TextView) findViewById(R.id.searchMessage);
+        ListView list = (ListView) findViewById(R.id.searchResults);
+        results = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1);
+        list.setAdapter(results);
+        list.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                setResult(RESULT_OK, new Intent().putExtra(EXTRA_STATE, shown.get(position).state));
+                finish();
+            }
+        });
+        query.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                search();
+            }
+        });
+
+        message.setText(R.string.search_loading);
+        new LoadIndexTask(this, getResources().getStringArray(R.array.states)).execute();
+    }
+
+    /**
+     * Loads the index off the UI thread. Static and holding the screen weakly, so a slow cache
+     * doesn't keep a closed screen alive.
+     */
+    private static class LoadIndexTask extends AsyncTask<Void, Void, SearchIndex> {
+        private final Context context;
+        private final String[] states;
+        private final WeakReference<SearchActivity> activity;
+
+        LoadIndexTask(SearchActivity activity, String[] states) {
+            this.context = activity.getApplicationContext();
+            this.states = states;
+            this.activity = new WeakReference<SearchActivity>(activity);
+        }
+
+        @Override
+        protected SearchIndex doInBackground(Void... params) {
+            try {
+                return load(Warmup.get(context).recordCache().get(), states);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Unable to load search index: " + e.getMessage());
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(SearchIndex result) {
+            SearchActivity target = activity.get();
+            if (target != null && !target.isFinishing()) {
+                target.onIndexLoaded(result);
+            }
+        }
+    }
+
+    private void onIndexLoaded(SearchIndex result) {
+        if (result == null || result.size() == 0) {
+            message.setText(R.string.search_no_index);
+            return;
+        }
+        index = result;
+        search();
+    }
+
+    /**
+     * Read the cached index, or build it from the cached records if they predate it
+     */
+    private static SearchIndex load(RecordCache cache, String[] states) throws IOException {
+        byte[] stored = cache.getSearchIndex();
+        if (stored != null) {
+            return SearchIndex.decode(stored);
+        }
+        Map<String, Map<String, String>> records = new LinkedHashMap<String, Map<String, String>>();
+        for (String state : states) {
+            Map<String, String> record = cache.getRecord(state);
+            if (record != null && record.get(InformationAsyncTask.SPEECH_INFO) != null) {
+                records.put(state, record);
+            }
+        }
+        if (records.isEmpty()) {
+            return null;
+        }
+        SearchIndex index = SearchIndex.build(records);
+        cache.putSearchIndex(index.encode());
+        return index;
+    }
+
+    /**
+     * Queries are quick enough to run on every key press
+     */
+    private void search() {
+        if (index == null) {
+            return;
+        }
+        String text = query.getText().toString();
+        results.clear();
+        if (text.trim().isEmpty()) {
+            shown = null;
+            message.setText(R.string.search_hint);
+            return;
+        }
+        shown = index.search(text);
+        for (SearchIndex.Result result : shown) {
+            results.add(result.state);
+        }
+        message.setText(shown.isEmpty() ? getString(R.string.search_no_results) : "");
+    }
+}
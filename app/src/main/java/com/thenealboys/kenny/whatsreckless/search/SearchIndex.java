@@ -0,0 +1,259 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.search;
+
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+import com.thenealboys.kenny.whatsreckless.data.RecordCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over the penalty text and Details of every state, built when the article is
+ * ingested. Queries are a binary search per term over the sorted dictionary, then a walk over
+ * short postings lists, so they take well under a millisecond.
+ * <p>
+ * Encoded with the {@link RecordCodec} framing. The body is the state names, then every term in
+ * order with its postings as varint pairs of state delta and term frequency.
+ */
+public final class SearchIndex {
+
+    /**
+     * A state matching a query
+     */
+    public static final class Result {
+        public final String state;
+
+        /**
+         * How many of the query's terms the state has
+         */
+        public final int matchedTerms;
+        public final float score;
+
+        Result(String state, int matchedTerms, float score) {
+            this.state = state;
+            this.matchedTerms = matchedTerms;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<Result> BEST_FIRST = new Comparator<Result>() {
+        @Override
+        public int compare(Result a, Result b) {
+            if (a.matchedTerms != b.matchedTerms) {
+                return b.matchedTerms - a.matchedTerms;
+            }
+            return Float.compare(b.score, a.score);
+        }
+    };
+
+    private final String[] states;
+
+    /**
+     * Sorted, so terms are found by binary search
+     */
+    private final String[] terms;
+
+    /**
+     * Per term, pairs of state index and term frequency
+     */
+    private final int[][] postings;
+
+    private SearchIndex(String[] states, String[] terms, int[][] postings) {
+        this.states = states;
+        this.terms = terms;
+        this.postings = postings;
+    }
+
+    /**
+     * @param records by state
+     * @return an index over the records' penalty and Details text
+     */
+    public static SearchIndex build(Map<String, Map<String, String>> records) {
+        List<String> states = new ArrayList<String>();
+        TreeMap<String, List<int[]>> index = new TreeMap<String, List<int[]>>();
+        for (Map.Entry<String, Map<String, String>> entry : records.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            int doc = states.size();
+            states.add(entry.getKey());
+
+            TreeMap<String, int[]> counts = new TreeMap<String, int[]>();
+            for (String term : Tokenizer.tokenize(textOf(entry.getValue()))) {
+                int[] count = counts.get(term);
+                if (count == null) {
+                    counts.put(term, new int[] { 1 });
+                } else {
+                    count[0]++;
+                }
+            }
+            for (Map.Entry<String, int[]> count : counts.entrySet()) {
+                List<int[]> list = index.get(count.getKey());
+                if (list == null) {
+                    list = new ArrayList<int[]>();
+                    index.put(count.getKey(), list);
+                }
+                list.add(new int[] { doc, count.getValue()[0] });
+            }
+        }
+
+        String[] terms = index.keySet().toArray(new String[index.size()]);
+        int[][] postings = new int[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            List<int[]> list = index.get(terms[i]);
+            int[] flat = new int[list.size() * 2];
+            for (int j = 0; j < list.size(); j++) {
+                flat[j * 2] = list.get(j)[0];
+                flat[j * 2 + 1] = list.get(j)[1];
+            }
+            postings[i] = flat;
+        }
+        return new SearchIndex(states.toArray(new String[states.size()]), terms, postings);
+    }
+
+    /**
+     * The text a state is found by, the normalized speech text covers both the penalty columns and
+     * the Details
+     */
+    private static String textOf(Map<String, String> record) {
+        StringBuilder text = new StringBuilder();
+        String info = record.get(InformationAsyncTask.SPEECH_INFO);
+        String details = record.get(InformationAsyncTask.SPEECH_DETAILS);
+        if (info != null) {
+            text.append(info).append('\n');
+        }
+        if (details != null) {
+            text.append(details);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param query as typed by the user
+     * @return the matching states, those matching most of the query's terms first
+     */
+    public List<Result> search(String query) {
+        List<String> queryTerms = Tokenizer.tokenizeQuery(query);
+        int[] matched = new int[states.length];
+        float[] scores = new float[states.length];
+        List<String> seen = new ArrayList<String>();
+        for (String term : queryTerms) {
+            if (seen.contains(term)) {
+                continue;
+            }
+            seen.add(term);
+            int at = Arrays.binarySearch(terms, term);
+            if (at < 0) {
+                continue;
+            }
+            int[] list = postings[at];
+            int documentFrequency = list.length / 2;
+            float idf = (float) Math.log(1 + (double) states.length / documentFrequency);
+            for (int i = 0; i < list.length; i += 2) {
+                int tf = list[i + 1];
+                matched[list[i]]++;
+                scores[list[i]] += idf * tf / (tf + 1f);
+            }
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        for (int doc = 0; doc < states.length; doc++) {
+            if (matched[doc] > 0) {
+                results.add(new Result(states[doc], matched[doc], scores[doc]));
+            }
+        }
+        Collections.sort(results, BEST_FIRST);
+        return results;
+    }
+
+    /**
+     * @return how many states are indexed
+     */
+    public int size() {
+        return states.length;
+    }
+
+    /**
+     * @return the index in its compact stored form
+     */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = RecordCodec.begin(bytes);
+            RecordCodec.writeVarInt(out, states.length);
+            for (String state : states) {
+                RecordCodec.writeString(out, state);
+            }
+            RecordCodec.writeVarInt(out, terms.length);
+            for (int i = 0; i < terms.length; i++) {
+                RecordCodec.writeString(out, terms[i]);
+                int[] list = postings[i];
+                RecordCodec.writeVarInt(out, list.length / 2);
+                int previous = 0;
+                for (int j = 0; j < list.length; j += 2) {
+                    RecordCodec.writeVarInt(out, list[j] - previous);
+                    RecordCodec.writeVarInt(out, list[j + 1]);
+                    previous = list[j];
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param data produced by {@link #encode()}
+     * @return the index
+     * @throws IOException if the data is corrupt or in another format version
+     */
+    public static SearchIndex decode(byte[] data) throws IOException {
+        DataInputStream in = RecordCodec.begin(new ByteArrayInputStream(data));
+        String[] states = new String[RecordCodec.readVarInt(in)];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = RecordCodec.readString(in);
+        }
+        String[] terms = new String[RecordCodec.readVarInt(in)];
+        int[][] postings = new int[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = RecordCodec.readString(in);
+            int[] list = new int[RecordCodec.readVarInt(in) * 2];
+            int doc = 0;
+            for (int j = 0; j < list.length; j += 2) {
+                doc += RecordCodec.readVarInt(in);
+                if (doc >= states.length) {
+                    throw new IOException("Posting out of range");
+                }
+                list[j] = doc;
+                list[j + 1] = RecordCodec.readVarInt(in);
+            }
+            postings[i] = list;
+        }
+        return new SearchIndex(states, terms, postings);
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits text into lower case, stemmed terms for the {@link SearchIndex}. The stemmer only strips
+ * common English suffixes, enough for "bans", "banned" and "banning" to meet at "ban".
+ */
+public final class Tokenizer {
+
+    private static final Set<String> STOP_WORDS = new HashSet<String>(Arrays.asList(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "has", "if", "in", "into",
+            "is", "it", "its", "of", "on", "or", "that", "the", "their", "there", "this", "to", "was",
+            "were", "will", "with"));
+
+    /**
+     * Words that only shape a question, such as "which states ban radar detectors"
+     */
+    private static final Set<String> QUESTION_WORDS = new HashSet<String>(Arrays.asList(
+            "which", "where", "what", "who", "how", "do", "does", "can", "state", "states", "i", "my",
+            "me", "you"));
+
+    private static final int MIN_STEM_LENGTH = 3;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * @param text to index
+     * @return its terms, in order, repeats included
+     */
+    public static List<String> tokenize(String text) {
+        return tokenize(text, false);
+    }
+
+    /**
+     * @param query as typed by the user
+     * @return its terms, without the words that only make it a question
+     */
+    public static List<String> tokenizeQuery(String query) {
+        return tokenize(query, true);
+    }
+
+    private static List<String> tokenize(String text, boolean query) {
+        List<String> terms = new ArrayList<String>();
+        if (text == null) {
+            return terms;
+        }
+        String lower = text.toLowerCase(Locale.US);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String word = lower.substring(start, i);
+                start = -1;
+                if (STOP_WORDS.contains(word) || (query && QUESTION_WORDS.contains(word))) {
+                    continue;
+                }
+                terms.add(stem(word));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @param word lower case word
+     * @return the word without its common suffixes
+     */
+    static String stem(String word) {
+        if (word.length() <= MIN_STEM_LENGTH || !Character.isLetter(word.charAt(0))) {
+            return word;
+        }
+        String stem = word;
+        if (stem.endsWith("sses")) {
+            stem = stem.substring(0, stem.length() - 2);
+        } else if (stem.endsWith("ies") && stem.length() > 4) {
+            stem = stem.substring(0, stem.length() - 3) + "y";
+        } else if (stem.endsWith("s") && !stem.endsWith("ss") && !stem.endsWith("us") && !stem.endsWith("is")) {
+            stem = stem.substring(0, stem.length() - 1);
+        }
+
+        boolean stripped = false;
+        if (stem.endsWith("ing") && stem.length() > 5) {
+            stem = stem.substring(0, stem.length() - 3);
+            stripped = true;
+        } else if (stem.endsWith("ed") && stem.length() > 4) {
+            stem = stem.substring(0, stem.length() - 2);
+            stripped = true;
+        } else if (stem.endsWith("ly") && stem.length() > 4) {
+            stem = stem.substring(0, stem.length() - 2);
+        }
+        if (stripped) {
+            // "banned" to "ban", but "passed" stays "pass"
+            int last = stem.length() - 1;
+            char c = stem.charAt(last);
+            if (last > 0 && c == stem.charAt(last - 1) && c != 'l' && c != 's' && c != 'z' && !isVowel(c)) {
+                stem = stem.substring(0, last);
+            }
+        }
+
+        // "drive" and "driving" both end up as "driv"
+        if (stem.endsWith("e") && stem.length() > MIN_STEM_LENGTH) {
+            stem = stem.substring(0, stem.length() - 1);
+        }
+        return stem;
+    }
+
+    private static boolean isVowel(char c) {
+        return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+    }
+}
@@ -7,6 +7,7 @@ import android.content.Intent;
 import android.content.res.Configuration;
 import android.os.Build;
 import android.os.Bundle;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.support.v7.app.ActionBar;
@@ -77,9 +78,18 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
     private static Preference.OnPreferenceChangeListener sBindPreferenceSummaryToValueListener = new Preference.OnPreferenceChangeListener() {
         @Override
         public boolean onPreferenceChange(Preference preference, Object value) {
-            // Set the summary to the value's simple string representation.
             String stringValue = value.toString();
-            preference.setSummary(stringValue);
+
+            if (preference instanceof ListPreference) {
+                // For list preferences, look up the correct display value in
+                // the preference's 'entries' list.
+                ListPreference listPreference = (ListPreference) preference;
+                int index = listPreference.findIndexOfValue(stringValue);
+                preference.setSummary(index >= 0 ? listPreference.getEntries()[index] : null);
+            } else {
+                // Set the summary to the value's simple string representation.
+                preference.setSummary(stringValue);
+            }
             return true;
         }
     };
@@ -132,6 +142,8 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
             // guidelines.
           //  bindPreferenceSummaryToValue(findPreference("example_text"));
           //  bindPreferenceSummaryToValue(findPreference("example_list"));
+            bindPreferenceSummaryToValue(findPreference("render_mode"));
+            bindPreferenceSummaryToValue(findPreference("posted_limit"));
         }
 
         @Override
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.sources;
+
+import android.content.res.AssetManager;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link FixtureLawSource} reading the files bundled in the app's assets, so it answers with no
+ * connection and well within its deadline
+ */
+public class AssetLawSource extends FixtureLawSource {
+
+    private final AssetManager assets;
+    private final String path;
+
+    /**
+     * @param name of the source
+     * @param assets of the app
+     * @param path of the assets directory holding the files
+     */
+    public AssetLawSource(String name, AssetManager assets, String path) {
+        super(name, new File(path));
+        this.assets = assets;
+        this.path = path;
+    }
+
+    @Override
+    protected InputStream open(String fileName) throws IOException {
+        try {
+            return assets.open(path + "/" + fileName);
+        } catch (FileNotFoundException e) {
+            // Nothing bundled for this state
+            return null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.sources;
+
+import com.thenealboys.kenny.whatsreckless.location.StateResolver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Laws kept in local files, one UTF-8 properties file per state named after its Wikipedia style
+ * anchor, such as New_York.properties. Used for fixtures in tests, and through
+ * {@link AssetLawSource} for the data bundled with the app.
+ */
+public class FixtureLawSource implements LawSource {
+
+    private static final long DEADLINE_MS = 1000;
+
+    private final String name;
+    private final File directory;
+
+    /**
+     * @param name of the source
+     * @param directory holding the files
+     */
+    public FixtureLawSource(String name, File directory) {
+        this.name = name;
+        this.directory = directory;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getDeadlineMs() {
+        return DEADLINE_MS;
+    }
+
+    /**
+     * @param fileName of a state's file
+     * @return the file's contents, null if there is no such file
+     * @throws IOException if the file can't be opened
+     */
+    protected InputStream open(String fileName) throws IOException {
+        File file = new File(directory, fileName);
+        return file.exists() ? new FileInputStream(file) : null;
+    }
+
+    @Override
+    public Map<String, String> fetch(String state) throws IOException {
+        String anchor = StateResolver.anchorOf(StateResolver.resolve(state));
+        InputStream file = anchor == null ? null : open(anchor + ".properties");
+        if (file == null) {
+            return null;
+        }
+        Properties properties = new Properties();
+        Reader in = new InputStreamReader(file, "UTF-8");
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        Map<String, String> laws = new LinkedHashMap<String, String>();
+        // Properties keep no order, sorting keeps the columns from moving between loads
+        for (String key : new TreeSet<String>(properties.stringPropertyNames())) {
+            laws.put(key, properties.getProperty(key));
+        }
+        return laws;
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.sources;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+import com.thenealboys.kenny.whatsreckless.render.DetailsSanitizer;
+import com.thenealboys.kenny.whatsreckless.rules.PenaltyRules;
+import com.thenealboys.kenny.whatsreckless.speech.SpeechTextNormalizer;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asks the registered {@link LawSource}s about a state in parallel and merges their answers into
+ * the state's record. Each source gets its own deadline, counted from when they were all asked,
+ * so a slow source costs at most its own deadline and never holds up the others. The article's
+ * values always win, then earlier registered sources over later ones. Which source provided each
+ * merged column is kept in the record under {@link #PROVENANCE}. Sources can't set the record's
+ * bookkeeping keys, and Details they fill in are sanitized like the article's.
+ */
+public final class LawAggregator {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = LawAggregator.class.getSimpleName();
+
+    /**
+     * Record key of the merged columns' sources, one "column TAB source" line per column
+     */
+    public static final String PROVENANCE = "provenance";
+
+    /**
+     * Record key of the sources that have answered for the record, comma separated. Only sources
+     * missing from it are asked on the next load.
+     */
+    public static final String ANSWERED = "answeredSources";
+
+    /**
+     * Keys the app derives itself, answers for them are ignored
+     */
+    private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList(PROVENANCE, ANSWERED,
+            InformationAsyncTask.COLUMN_NAMES, InformationAsyncTask.RECORD_VERSION,
+            InformationAsyncTask.SPEECH_INFO, InformationAsyncTask.SPEECH_DETAILS, PenaltyRules.RECORD_KEY));
+
+    private static final int MAX_PARALLEL = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static LawAggregator instance;
+
+    private final List<LawSource> sources = new CopyOnWriteArrayList<LawSource>();
+    private final ExecutorService executor;
+
+    LawAggregator(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the process wide aggregator
+     */
+    public static synchronized LawAggregator get() {
+        if (instance == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL, MAX_PARALLEL,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, LOG_TAG);
+                }
+            });
+            // Nothing is kept running between loads
+            executor.allowCoreThreadTimeOut(true);
+            instance = new LawAggregator(executor);
+        }
+        return instance;
+    }
+
+    /**
+     * @param source to ask about every loaded state from now on
+     */
+    public void register(LawSource source) {
+        sources.add(source);
+    }
+
+    /**
+     * @param record a state's record
+     * @return the registered sources that haven't answered for the record yet, in registration order
+     */
+    public List<LawSource> pendingFor(Map<String, String> record) {
+        if (sources.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> answered = split(record.get(ANSWERED), ",");
+        List<LawSource> pending = new ArrayList<LawSource>();
+        for (LawSource source : sources) {
+            if (!answered.contains(source.getName())) {
+                pending.add(source);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Ask the sources about a state and merge their answers into a copy of its record. Blocks
+     * until every source has answered or passed its deadline.
+     *
+     * @param state canonical name of the state
+     * @param record the state's record, not modified
+     * @param pending sources to ask, usually {@link #pendingFor(Map)}
+     * @return the merged record, or the given record itself if no source answered
+     */
+    public Map<String, String> aggregate(final String state, Map<String, String> record, List<LawSource> pending) {
+        long start = System.nanoTime();
+        List<Future<Map<String, String>>> futures = new ArrayList<Future<Map<String, String>>>(pending.size());
+        for (final LawSource source : pending) {
+            futures.add(executor.submit(new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() throws Exception {
+                    return source.fetch(state);
+                }
+            }));
+        }
+
+        // Collected in registration order, so the merge doesn't depend on who answered first
+        Map<LawSource, Map<String, String>> answers = new LinkedHashMap<LawSource, Map<String, String>>();
+        for (int i = 0; i < futures.size(); i++) {
+            LawSource source = pending.get(i);
+            Future<Map<String, String>> future = futures.get(i);
+            long remaining = source.getDeadlineMs() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            try {
+                Map<String, String> answer = future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+                answers.put(source, answer == null ? Collections.<String, String>emptyMap() : answer);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                Diagnostics.increment(Diagnostics.LAW_SOURCE_TIMEOUTS);
+                Log.w(LOG_TAG, String.format("%s missed its %d ms deadline for %s", source.getName(), source.getDeadlineMs(), state));
+            } catch (ExecutionException e) {
+                Diagnostics.increment(Diagnostics.LAW_SOURCE_FAILURES);
+                Log.w(LOG_TAG, String.format("%s failed for %s: %s", source.getName(), state, e.getCause()));
+            } catch (InterruptedException e) {
+                for (Future<Map<String, String>> unfinished : futures) {
+                    unfinished.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return answers.isEmpty() ? record : merge(record, answers);
+    }
+
+    /**
+     * @param record a merged record
+     * @param column one of its columns
+     * @return name of the source the column's value came from, null if it came from the article
+     */
+    public static String sourceOf(Map<String, String> record, String column) {
+        for (String line : split(record.get(PROVENANCE), "\n")) {
+            if (line.startsWith(column + "\t")) {
+                return line.substring(column.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    static Map<String, String> merge(Map<String, String> record, Map<LawSource, Map<String, String>> answers) {
+        Map<String, String> merged = new LinkedHashMap<String, String>(record);
+        List<String> columns = split(record.get(InformationAsyncTask.COLUMN_NAMES), ",");
+        // New columns go before the details, which stay last
+        int insertAt = columns.indexOf(InformationAsyncTask.DETAILS);
+        if (insertAt < 0) {
+            insertAt = columns.size();
+        }
+        StringBuilder provenance = new StringBuilder(nonNull(record.get(PROVENANCE)));
+        List<String> answered = split(record.get(ANSWERED), ",");
+
+        for (Map.Entry<LawSource, Map<String, String>> answer : answers.entrySet()) {
+            String sourceName = answer.getKey().getName();
+            for (Map.Entry<String, String> law : answer.getValue().entrySet()) {
+                // Column names end up in comma separated and line based lists
+                String column = law.getKey() == null ? "" : law.getKey().replaceAll("[,\\t\\n]", " ").trim();
+                String value = law.getValue() == null ? "" : law.getValue().trim();
+                if (RESERVED.contains(column) || column.length() == 0 || value.length() == 0
+                        || nonNull(merged.get(column)).length() > 0) {
+                    continue;
+                }
+                if (InformationAsyncTask.DETAILS.equals(column)) {
+                    // Shown as HTML, so it gets the same treatment as the article's
+                    Element details = Jsoup.parseBodyFragment(value).body();
+                    value = DetailsSanitizer.sanitize(details).trim();
+                    if (value.length() == 0) {
+                        continue;
+                    }
+                    merged.put(InformationAsyncTask.SPEECH_DETAILS,
+                            SpeechTextNormalizer.join(SpeechTextNormalizer.toUtterances(details)));
+                    if (!columns.contains(column)) {
+                        columns.add(column);
+                    }
+                } else if (!columns.contains(column)) {
+                    columns.add(insertAt++, column);
+                }
+                merged.put(column, value);
+                provenance.append(column).append('\t').append(sourceName).append('\n');
+            }
+            if (!answered.contains(sourceName)) {
+                answered.add(sourceName);
+            }
+        }
+
+        merged.put(PROVENANCE, provenance.toString());
+        merged.put(ANSWERED, join(answered, ","));
+        merged.put(InformationAsyncTask.COLUMN_NAMES, join(columns, ","));
+        String[] columnNames = columns.toArray(new String[columns.size()]);
+        merged.put(InformationAsyncTask.SPEECH_INFO,
+                SpeechTextNormalizer.join(InformationAsyncTask.describeColumns(columnNames, merged)));
+        return merged;
+    }
+
+    private static List<String> split(String joined, String separator) {
+        if (joined == null || joined.length() == 0) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(Arrays.asList(joined.split(separator)));
+    }
+
+    private static String join(List<String> parts, String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (String part : parts) {
+            if (joined.length() > 0) {
+                joined.append(separator);
+            }
+            joined.append(part);
+        }
+        return joined.toString();
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+}
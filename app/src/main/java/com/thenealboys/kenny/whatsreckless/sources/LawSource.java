@@ -0,0 +1,48 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.sources;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A source of driving laws besides the Wikipedia article, such as a state DOT or statute page.
+ * Sources are asked by the {@link LawAggregator} once a state's record has been loaded from the
+ * article, and what they know is merged into the record.
+ */
+public interface LawSource {
+
+    /**
+     * @return name of the source, shown as the provenance of the fields it provided
+     */
+    String getName();
+
+    /**
+     * @return how long the source may take to answer, in milliseconds. An answer after this is
+     * dropped and the source is asked again on the next load.
+     */
+    long getDeadlineMs();
+
+    /**
+     * Fetch what the source knows about a state. Called on a worker thread, in parallel with the
+     * other sources. Should give up when interrupted.
+     *
+     * @param state canonical name of the state
+     * @return column name to plain text value, null or empty if the source has nothing for the state
+     * @throws IOException if the source couldn't be reached or read
+     */
+    Map<String, String> fetch(String state) throws IOException;
+}
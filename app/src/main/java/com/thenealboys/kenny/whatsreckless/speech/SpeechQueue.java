@@ -0,0 +1,104 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.speech;
+
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Plays a list of utterances through {@link TextToSpeech}. The first utterance flushes whatever
+ * was playing and the rest are queued behind it, so speech starts as soon as the first one is
+ * synthesized and can be stopped or skipped between utterances.
+ */
+public class SpeechQueue {
+
+    private final TextToSpeech textToSpeech;
+
+    /**
+     * Utterances of the current playback, the utterance id is the index into this list
+     */
+    private List<String> utterances = new ArrayList<String>();
+
+    /**
+     * Index of the utterance currently being spoken
+     */
+    private volatile int current = -1;
+
+    public SpeechQueue(TextToSpeech textToSpeech) {
+        this.textToSpeech = textToSpeech;
+        textToSpeech.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+                current = Integer.parseInt(utteranceId);
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+            }
+        });
+    }
+
+    /**
+     * Replace whatever is playing with the given utterances
+     *
+     * @param utterances to speak, in order
+     */
+    public synchronized void play(List<String> utterances) {
+        this.utterances = new ArrayList<String>(utterances);
+        queueFrom(0);
+    }
+
+    /**
+     * Stop playback
+     */
+    public synchronized void stop() {
+        current = -1;
+        textToSpeech.stop();
+    }
+
+    /**
+     * Drop the utterance being spoken and continue with the next one
+     */
+    public synchronized void skip() {
+        int next = current + 1;
+        if (current < 0 || next >= utterances.size()) {
+            stop();
+            return;
+        }
+        queueFrom(next);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void queueFrom(int start) {
+        current = start;
+        for (int i = start; i < utterances.size(); i++) {
+            HashMap<String, String> params = new HashMap<String, String>();
+            params.put(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, String.valueOf(i));
+            textToSpeech.speak(utterances.get(i), i == start ? TextToSpeech.QUEUE_FLUSH : TextToSpeech.QUEUE_ADD, params);
+        }
+        Diagnostics.add(Diagnostics.TTS_UTTERANCES, utterances.size() - start);
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.speech;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns the Wikipedia markup for a state into plain, sentence sized utterances for text to speech.
+ * Run once when the record is built so playback never has to deal with markup.
+ */
+public final class SpeechTextNormalizer {
+
+    /**
+     * Separator used when storing utterances in a single record value
+     */
+    public static final String UTTERANCE_SEPARATOR = "\n";
+
+    /**
+     * Longest utterance we queue, well under the TTS engine's input limit and short enough that
+     * stopping or skipping is quick
+     */
+    static final int MAX_UTTERANCE_LENGTH = 300;
+
+    /**
+     * Elements that never make sense read aloud: citation markers, edit links and media
+     */
+    private static final String UNSPOKEN_ELEMENTS = "sup.reference, sup.noprint, span.mw-editsection, img, table.metadata, style, script";
+
+    private static final Pattern URL = Pattern.compile("(https?://|www\\.)\\S+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CITATION = Pattern.compile("\\[(\\d+|[a-z]|citation needed|clarification needed|when\\?|who\\?)\\]", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?])\\s+(?=[A-Z0-9\"(])");
+
+    /**
+     * Initials such as "F.", "U.S.", "D.C." or "W.Va.", whose periods don't end a sentence
+     */
+    private static final Pattern INITIALS = Pattern.compile("[A-Z]\\.|(?:[A-Za-z]{1,2}\\.){2,}");
+
+    /**
+     * Abbreviations common in the article's legal citations and state names, lower case
+     */
+    private static final Set<String> ABBREVIATIONS = new HashSet<String>(Arrays.asList(
+            "ann.", "art.", "ch.", "gen.", "no.", "rev.", "sec.", "stat.", "traf.", "veh.", "v.", "vs.",
+            "dr.", "mr.", "mrs.", "ms.", "st.", "jr.", "sr.",
+            "ala.", "ariz.", "ark.", "cal.", "calif.", "colo.", "conn.", "del.", "fla.", "ga.",
+            "ill.", "ind.", "kan.", "ky.", "la.", "md.", "mass.", "mich.", "minn.", "miss.", "mo.",
+            "mont.", "neb.", "nev.", "okla.", "ore.", "pa.", "tenn.", "tex.", "vt.", "va.",
+            "wash.", "wis.", "wyo."));
+
+    private SpeechTextNormalizer() {
+    }
+
+    /**
+     * @param html fragment of Wikipedia markup
+     * @return the utterances for the fragment, in reading order
+     */
+    public static List<String> toUtterances(String html) {
+        return toUtterances(Jsoup.parseBodyFragment(html).body());
+    }
+
+    /**
+     * @param element the element to read; it is not modified
+     * @return the utterances for the element, in reading order
+     */
+    public static List<String> toUtterances(Element element) {
+        Element copy = element.clone();
+        copy.select(UNSPOKEN_ELEMENTS).remove();
+        return split(normalize(copy.text()));
+    }
+
+    /**
+     * Strip citation markers and URLs from already plain text and collapse whitespace
+     *
+     * @param text to clean up
+     * @return the cleaned up text
+     */
+    public static String normalize(String text) {
+        String result = CITATION.matcher(text).replaceAll("");
+        result = URL.matcher(result).replaceAll("");
+        return WHITESPACE.matcher(result).replaceAll(" ").trim();
+    }
+
+    /**
+     * Split normalized text into sentences, breaking overly long sentences at word boundaries
+     *
+     * @param text normalized text
+     * @return the utterances
+     */
+    static List<String> split(String text) {
+        List<String> utterances = new ArrayList<String>();
+        if (text.isEmpty()) {
+            return utterances;
+        }
+        for (String sentence : sentences(text)) {
+            while (sentence.length() > MAX_UTTERANCE_LENGTH) {
+                int cut = sentence.lastIndexOf(' ', MAX_UTTERANCE_LENGTH);
+                if (cut <= 0) {
+                    cut = MAX_UTTERANCE_LENGTH;
+                }
+                utterances.add(sentence.substring(0, cut).trim());
+                sentence = sentence.substring(cut).trim();
+            }
+            if (!sentence.isEmpty()) {
+                utterances.add(sentence);
+            }
+        }
+        return utterances;
+    }
+
+    /**
+     * @param text normalized text
+     * @return the text's sentences, not split after abbreviations such as "U.S." or "Va."
+     */
+    private static List<String> sentences(String text) {
+        List<String> sentences = new ArrayList<String>();
+        int start = 0;
+        Matcher end = SENTENCE_END.matcher(text);
+        while (end.find()) {
+            if (!isAbbreviation(text.substring(text.lastIndexOf(' ', end.start() - 1) + 1, end.start()))) {
+                sentences.add(text.substring(start, end.start()));
+                start = end.end();
+            }
+        }
+        sentences.add(text.substring(start));
+        return sentences;
+    }
+
+    /**
+     * @param word the word before a possible sentence end, including its punctuation
+     * @return true if the word's period belongs to an abbreviation
+     */
+    private static boolean isAbbreviation(String word) {
+        if (!word.endsWith(".")) {
+            return false;
+        }
+        // Drop any opening bracket or quote
+        int first = 0;
+        while (first < word.length() && !Character.isLetter(word.charAt(first))) {
+            first++;
+        }
+        word = word.substring(first);
+        return INITIALS.matcher(word).matches() || ABBREVIATIONS.contains(word.toLowerCase(Locale.US));
+    }
+
+    /**
+     * @param utterances to store
+     * @return the utterances joined into a single record value
+     */
+    public static String join(List<String> utterances) {
+        StringBuilder sb = new StringBuilder();
+        for (String utterance : utterances) {
+            if (sb.length() > 0) {
+                sb.append(UTTERANCE_SEPARATOR);
+            }
+            sb.append(utterance);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param value a record value produced by {@link #join(List)}
+     * @return the stored utterances
+     */
+    public static List<String> splitStored(String value) {
+        List<String> utterances = new ArrayList<String>();
+        if (value == null || value.isEmpty()) {
+            return utterances;
+        }
+        for (String utterance : value.split(UTTERANCE_SEPARATOR)) {
+            utterances.add(utterance);
+        }
+        return utterances;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.widget;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.widget.RemoteViews;
+
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+import com.thenealboys.kenny.whatsreckless.MainActivity;
+import com.thenealboys.kenny.whatsreckless.R;
+import com.thenealboys.kenny.whatsreckless.data.RecordCache;
+import com.thenealboys.kenny.whatsreckless.data.TaskScheduler;
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Home screen widget showing the current state's key penalty columns, straight from the
+ * {@link RecordCache}. It is never polled: {@link #push(Context, String)} updates it when a state
+ * change is resolved, {@link #recordsCached(Context, Collection)} when the shown state's record
+ * arrives after that, and the framework only asks for an update when a widget is placed or the
+ * launcher restarts, so between crossings it costs no wakeups at all.
+ */
+public class StateWidgetProvider extends AppWidgetProvider {
+    /**
+     * Tag used for logging
+     */
+    private static final String LOG_TAG = StateWidgetProvider.class.getSimpleName();
+
+    /**
+     * Preference holding the last state pushed, shown by widgets placed later
+     */
+    private static final String PREF_STATE = "widget_state";
+
+    /**
+     * Penalty columns shown, the widget has room for about this many lines
+     */
+    private static final int MAX_COLUMNS = 3;
+
+    /**
+     * Column holding the state name, already in the widget's title
+     */
+    private static final String STATE_COLUMN = "State";
+
+    @Override
+    public void onUpdate(Context context, final AppWidgetManager manager, final int[] appWidgetIds) {
+        final Context appContext = context.getApplicationContext();
+        final String state = PreferenceManager.getDefaultSharedPreferences(appContext).getString(PREF_STATE, null);
+
+        // Reading the record is disk I/O, keep the receiver alive until it's done
+        final PendingResult result = goAsync();
+        TaskScheduler.get().submit(TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    update(appContext, manager, appWidgetIds, state);
+                } finally {
+                    result.finish();
+                }
+            }
+        });
+    }
+
+    /**
+     * Show a newly resolved state on every placed widget. Does nothing but remember the state when
+     * no widget is placed.
+     *
+     * @param context any context, only the application context is kept
+     * @param state the device is now in
+     */
+    public static void push(Context context, final String state) {
+        final Context appContext = context.getApplicationContext();
+        PreferenceManager.getDefaultSharedPreferences(appContext).edit().putString(PREF_STATE, state).apply();
+
+        final AppWidgetManager manager = AppWidgetManager.getInstance(appContext);
+        final int[] ids = manager.getAppWidgetIds(new ComponentName(appContext, StateWidgetProvider.class));
+        if (ids.length == 0) {
+            return;
+        }
+        TaskScheduler.get().submit(TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                update(appContext, manager, ids, state);
+            }
+        });
+    }
+
+    /**
+     * Show a record that was cached after its state was pushed, so a state entered before its
+     * record was loaded doesn't stay without one until the next crossing
+     *
+     * @param context any context, only the application context is kept
+     * @param states whose records were just cached
+     */
+    public static void recordsCached(Context context, Collection<String> states) {
+        Context appContext = context.getApplicationContext();
+        String state = PreferenceManager.getDefaultSharedPreferences(appContext).getString(PREF_STATE, null);
+        if (state != null && states.contains(state)) {
+            push(appContext, state);
+        }
+    }
+
+    private static void update(Context context, AppWidgetManager manager, int[] ids, String state) {
+        long start = Diagnostics.start();
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_state);
+        if (state == null) {
+            views.setTextViewText(R.id.widgetState, context.getString(R.string.app_name));
+            views.setTextViewText(R.id.widgetLimits, context.getString(R.string.widget_no_state));
+        } else {
+            Map<String, String> record = null;
+            try {
+                record = RecordCache.get(context).getRecord(state);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "No cached record for widget: " + e.getMessage());
+            }
+            String limits = summarize(record);
+            views.setTextViewText(R.id.widgetState, state);
+            views.setTextViewText(R.id.widgetLimits, limits != null ? limits : context.getString(R.string.widget_no_record));
+        }
+
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        views.setOnClickPendingIntent(R.id.widgetRoot,
+                PendingIntent.getActivity(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT));
+
+        manager.updateAppWidget(ids, views);
+        Diagnostics.increment(Diagnostics.WIDGET_UPDATES);
+        Diagnostics.addElapsed(Diagnostics.WIDGET_UPDATE_TIME_MS, start);
+    }
+
+    /**
+     * @param record a state's record, or null
+     * @return the first penalty columns, one "column: value" line each, null if there are none
+     */
+    private static String summarize(Map<String, String> record) {
+        if (record == null || record.get(InformationAsyncTask.COLUMN_NAMES) == null) {
+            return null;
+        }
+        StringBuilder limits = new StringBuilder();
+        int shown = 0;
+        for (String column : record.get(InformationAsyncTask.COLUMN_NAMES).split(",")) {
+            if (STATE_COLUMN.equals(column) || InformationAsyncTask.DETAILS.equals(column)) {
+                continue;
+            }
+            String value = record.get(column);
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            if (limits.length() > 0) {
+                limits.append('\n');
+            }
+            limits.append(column).append(": ").append(value);
+            if (++shown == MAX_COLUMNS) {
+                break;
+            }
+        }
+        return shown == 0 ? null : limits.toString();
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.widget;
+
+import android.content.Context;
+import android.location.Location;
+
+import com.thenealboys.kenny.whatsreckless.location.FixListener;
+
+/**
+ * Pushes the state to the {@link StateWidgetProvider} whenever the resolved state differs from the
+ * last one pushed, the first fix included. Every other fix costs a string comparison. A record
+ * that isn't cached yet is shown once it is, see
+ * {@link StateWidgetProvider#recordsCached(Context, java.util.Collection)}.
+ */
+public class StateWidgetUpdater implements FixListener {
+    private final Context context;
+
+    /**
+     * Only touched on the location lookup thread
+     */
+    private String pushed;
+
+    /**
+     * @param context any context, only the application context is kept
+     */
+    public StateWidgetUpdater(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public void onFix(Location location, String state) {
+        if (state == null || state.equals(pushed)) {
+            return;
+        }
+        pushed = state;
+        StateWidgetProvider.push(context, state);
+    }
+}
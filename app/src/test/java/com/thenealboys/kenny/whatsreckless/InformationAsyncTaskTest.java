@@ -0,0 +1,64 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import android.content.ContextWrapper;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a running task doesn't keep the screen it reports to alive
+ */
+public class InformationAsyncTaskTest {
+
+    @Test
+    public void callbackCanBeCollectedWhileTheTaskIsHeld() throws InterruptedException {
+        InformationAsyncTask.Callback callback = new IgnoringCallback();
+        WeakReference<InformationAsyncTask.Callback> collected =
+                new WeakReference<InformationAsyncTask.Callback>(callback);
+        InformationAsyncTask task = new InformationAsyncTask(new ContextWrapper(null), "Ohio", callback);
+
+        // Like a screen that's been closed while its task is still loading
+        callback = null;
+        for (int i = 0; i < 50 && collected.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertNull(collected.get());
+        // Keeps the task reachable until here
+        assertNull(task.getRenderedPage());
+    }
+
+    private static class IgnoringCallback implements InformationAsyncTask.Callback {
+        @Override
+        public void onStateInfoLoading(String state) {
+        }
+
+        @Override
+        public void onStateInfoLoaded(String state, Map<String, String> stateInfo, String renderedPage) {
+        }
+
+        @Override
+        public void onStateInfoFailed(String state, int failure) {
+        }
+    }
+}
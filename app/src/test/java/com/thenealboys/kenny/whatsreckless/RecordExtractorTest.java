@@ -0,0 +1,97 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that extraction keeps only the small records from the article
+ */
+public class RecordExtractorTest {
+
+    private static final String[] STATES = { "Alabama", "Alaska", "Arizona", "Arkansas", "California",
+            "Colorado", "Connecticut", "Delaware", "Florida", "Georgia", "Hawaii", "Idaho", "Illinois",
+            "Indiana", "Iowa", "Kansas", "Kentucky", "Louisiana", "Maine", "Maryland", "Massachusetts",
+            "Michigan", "Minnesota", "Mississippi", "Missouri", "Montana", "Nebraska", "Nevada",
+            "New Hampshire", "New Jersey", "New Mexico", "New York", "North Carolina", "North Dakota",
+            "Ohio", "Oklahoma", "Oregon", "Pennsylvania", "Rhode Island", "South Carolina",
+            "South Dakota", "Tennessee", "Texas", "Utah", "Vermont", "Virginia", "Washington",
+            "West Virginia", "Wisconsin", "Wyoming" };
+
+    private static final byte[] ARTICLE = buildArticle();
+
+    @Test
+    public void extractsEveryListedState() throws IOException {
+        RecordExtractor.Article parsed = parse();
+        assertArrayEquals(new String[] { "State", "Threshold", "Fine" }, parsed.columns);
+        for (String state : STATES) {
+            assertNotNull(state, parsed.extract(state));
+        }
+
+        Map<String, String> record = parsed.extract("Ohio");
+        assertEquals("20 mph over the limit", record.get("Threshold"));
+        assertEquals("Up to $2,500", record.get("Fine"));
+        assertNotNull(record.get(InformationAsyncTask.DETAILS));
+        assertEquals("State,Threshold,Fine,Details", record.get(InformationAsyncTask.COLUMN_NAMES));
+        assertEquals("1", record.get(InformationAsyncTask.RECORD_VERSION));
+    }
+
+    @Test
+    public void extractsTheSameRecordEachTime() throws IOException {
+        RecordExtractor.Article parsed = parse();
+        assertEquals(parse().extract("Ohio"), parsed.extract("Ohio"));
+        assertEquals(parsed.extract("Ohio"), parsed.extract("Ohio"));
+    }
+
+    @Test
+    public void hasNothingForUnlistedStates() throws IOException {
+        assertNull(parse().extract("Atlantis"));
+    }
+
+    private static RecordExtractor.Article parse() throws IOException {
+        return RecordExtractor.parse(new ByteArrayInputStream(ARTICLE), "http://localhost/", "1");
+    }
+
+    /**
+     * A cut down article with the same structure as the Wikipedia one
+     */
+    private static byte[] buildArticle() {
+        StringBuilder html = new StringBuilder("<html><body><table>");
+        html.append("<tr id=\"PenaltyHeaders\"><th>State</th><th>Threshold</th><th>Fine</th></tr>");
+        for (String state : STATES) {
+            html.append("<tr id=\"").append(state).append("Penalties\"><td>").append(state)
+                    .append("</td><td>20 mph over the limit</td><td>Up to $2,500</td></tr>");
+        }
+        html.append("</table>");
+        for (String state : STATES) {
+            html.append("<h3><span id=\"").append(state).append("\">").append(state).append("</span></h3><div>");
+            for (int i = 0; i < 40; i++) {
+                html.append("<p>Reckless driving in <a href=\"/wiki/").append(state).append("\">")
+                        .append(state).append("</a> is a misdemeanor. <sup>[").append(i).append("]</sup></p>");
+            }
+            html.append("</div>");
+        }
+        html.append("</body></html>");
+        return html.toString().getBytes(Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,204 @@
+package com.thenealboys.kenny.whatsreckless.data;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the {@link ArticleFetcher} against a local stub server
+ */
+public class ArticleFetcherTest {
+
+    private static final byte[] BODY = "<html><body>Reckless</body></html>".getBytes();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * Status for each request in turn, the last one repeats
+     */
+    private volatile int[] statuses = { 200 };
+    private volatile boolean gzip = false;
+    private volatile long delayMs = 0;
+    private volatile String redirectTarget = "/wiki";
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/wiki", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int request = requests.getAndIncrement();
+                int status = statuses[Math.min(request, statuses.length - 1)];
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = BODY;
+                boolean compress = gzip && "gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+                if (compress) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    GZIPOutputStream out = new GZIPOutputStream(bytes);
+                    out.write(BODY);
+                    out.close();
+                    body = bytes.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(status, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.createContext("/moved", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.getAndIncrement();
+                // Relative, as Wikipedia's own redirects may be
+                exchange.getResponseHeaders().set("Location", redirectTarget);
+                exchange.sendResponseHeaders(301, -1);
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private String url() {
+        return url("/wiki");
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static ArticleFetcher fetcher(int attempts) {
+        return new ArticleFetcher(1000, 1000, attempts, 1);
+    }
+
+    @Test
+    public void fetchesPlainBody() throws Exception {
+        ArticleFetcher.ByteArraySink sink = new ArticleFetcher.ByteArraySink();
+        assertEquals(BODY.length, fetcher(1).fetch(url(), sink));
+        assertArrayEquals(BODY, sink.toByteArray());
+    }
+
+    @Test
+    public void decompressesGzipBody() throws Exception {
+        gzip = true;
+        ArticleFetcher.ByteArraySink sink = new ArticleFetcher.ByteArraySink();
+        fetcher(1).fetch(url(), sink);
+        assertArrayEquals(BODY, sink.toByteArray());
+    }
+
+    @Test
+    public void retriesServerErrors() throws Exception {
+        statuses = new int[] { 503, 500, 200 };
+        ArticleFetcher.ByteArraySink sink = new ArticleFetcher.ByteArraySink();
+        fetcher(3).fetch(url(), sink);
+        assertArrayEquals(BODY, sink.toByteArray());
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        statuses = new int[] { 503 };
+        try {
+            fetcher(2).fetch(url(), new ArticleFetcher.ByteArraySink());
+            fail("Expected the fetch to fail");
+        } catch (ArticleFetcher.HttpStatusException e) {
+            assertEquals(503, e.getStatus());
+        }
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws Exception {
+        statuses = new int[] { 404 };
+        try {
+            fetcher(3).fetch(url(), new ArticleFetcher.ByteArraySink());
+            fail("Expected the fetch to fail");
+        } catch (ArticleFetcher.HttpStatusException e) {
+            assertEquals(404, e.getStatus());
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void readTimeoutIsRetried() throws Exception {
+        delayMs = 1500;
+        try {
+            fetcher(2).fetch(url(), new ArticleFetcher.ByteArraySink());
+            fail("Expected the fetch to time out");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void followsRedirects() throws Exception {
+        ArticleFetcher.ByteArraySink sink = new ArticleFetcher.ByteArraySink();
+        assertEquals(BODY.length, fetcher(1).fetch(url("/moved"), sink));
+        assertArrayEquals(BODY, sink.toByteArray());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void givesUpOnRedirectLoops() throws Exception {
+        redirectTarget = "/moved";
+        try {
+            fetcher(1).fetch(url("/moved"), new ArticleFetcher.ByteArraySink());
+            fail("Expected the fetch to fail");
+        } catch (ArticleFetcher.HttpStatusException e) {
+            assertEquals(301, e.getStatus());
+        }
+        // The first request plus the redirects followed before giving up
+        assertEquals(6, requests.get());
+    }
+
+    @Test
+    public void doesNotRetryWhenTheSinkIsUnavailable() throws Exception {
+        ArticleFetcher.Sink busy = new ArticleFetcher.Sink() {
+            @Override
+            public OutputStream open() throws IOException {
+                throw new ArticleFetcher.SinkUnavailableException("Busy");
+            }
+
+            @Override
+            public void commit() {
+            }
+
+            @Override
+            public void abort() {
+            }
+        };
+        try {
+            fetcher(3).fetch(url(), busy);
+            fail("Expected the fetch to fail");
+        } catch (ArticleFetcher.SinkUnavailableException e) {
+            // Expected
+        }
+        assertEquals(1, requests.get());
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the expiry of the no data entries and the network backoff against a fake clock
+ */
+public class NegativeCacheTest {
+
+    @Test
+    public void noDataLastsADay() {
+        TestCache cache = new TestCache();
+        cache.putNoData("Ohio");
+
+        cache.time += NegativeCache.NO_DATA_TTL_MS - 1;
+        assertTrue(cache.hasNoData("Ohio"));
+        assertFalse(cache.hasNoData("Texas"));
+        cache.time += 1;
+        assertFalse(cache.hasNoData("Ohio"));
+    }
+
+    @Test
+    public void clearingForgetsNoData() {
+        TestCache cache = new TestCache();
+        cache.putNoData("Ohio");
+        cache.clearNoData();
+        assertFalse(cache.hasNoData("Ohio"));
+    }
+
+    @Test
+    public void backoffDoublesUpToTheMaximum() {
+        TestCache cache = new TestCache();
+        long[] expected = { 15 * 1000, 30 * 1000, 60 * 1000, 120 * 1000, 240 * 1000, 300 * 1000, 300 * 1000 };
+        for (long backoff : expected) {
+            cache.putNetworkFailure();
+            cache.time += backoff - 1;
+            assertTrue(cache.isOffline());
+            cache.time += 1;
+            assertFalse(cache.isOffline());
+        }
+        assertEquals(NegativeCache.OFFLINE_MIN_BACKOFF_MS, expected[0]);
+        assertEquals(NegativeCache.OFFLINE_MAX_BACKOFF_MS, expected[expected.length - 1]);
+    }
+
+    @Test
+    public void successEndsTheBackoffAndStartsItOver() {
+        TestCache cache = new TestCache();
+        cache.putNetworkFailure();
+        cache.putNetworkFailure();
+        assertTrue(cache.isOffline());
+
+        cache.clearNetworkFailures();
+        assertFalse(cache.isOffline());
+
+        cache.putNetworkFailure();
+        cache.time += NegativeCache.OFFLINE_MIN_BACKOFF_MS;
+        assertFalse(cache.isOffline());
+    }
+
+    @Test
+    public void noConnectionIsOffline() {
+        TestCache cache = new TestCache();
+        cache.connected = false;
+        assertTrue(cache.isOffline());
+    }
+
+    private static class TestCache extends NegativeCache {
+        long time = 1000;
+        boolean connected = true;
+
+        TestCache() {
+            super(null);
+        }
+
+        @Override
+        boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        long now() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that cached values read back as written and that stale or foreign ones are refused
+ */
+public class RecordCodecTest {
+
+    private static final List<String> TABLE = Arrays.asList("Threshold", "Fine", "Details");
+
+    @Test
+    public void roundTripsATable() throws IOException {
+        assertEquals(TABLE, RecordCodec.decodeTable(RecordCodec.encodeTable(TABLE)));
+    }
+
+    @Test
+    public void roundTripsARecordInOrder() throws IOException {
+        Map<String, String> record = new LinkedHashMap<String, String>();
+        record.put("Fine", "Up to $2,500");
+        record.put("Threshold", "20 mph over the limit");
+        // Not in the table, so it's written inline
+        record.put("Source", "Wikipedia");
+        record.put("Details", "Reckless driving in Ohio — a misdemeanor");
+
+        Map<String, String> decoded = RecordCodec.decodeRecord(encode(record), TABLE);
+        assertEquals(record, decoded);
+        assertEquals(Arrays.asList("Fine", "Threshold", "Source", "Details"),
+                Arrays.asList(decoded.keySet().toArray()));
+    }
+
+    @Test
+    public void roundTripsText() throws IOException {
+        String page = "<p>Reckless driving — up to $2,500</p>";
+        assertEquals(page, RecordCodec.decodeText(RecordCodec.encodeText(page)));
+        assertEquals("", RecordCodec.decodeText(RecordCodec.encodeText("")));
+    }
+
+    @Test
+    public void refusesAnotherFormatVersion() {
+        byte[] data = RecordCodec.encodeText("Ohio");
+        data[1] = (byte) (RecordCodec.FORMAT_VERSION + 1);
+        assertRefused(data);
+    }
+
+    @Test
+    public void refusesAWrongMagicByte() {
+        byte[] data = RecordCodec.encodeText("Ohio");
+        data[0] = (byte) (data[0] + 1);
+        assertRefused(data);
+    }
+
+    @Test
+    public void refusesARecordEncodedAgainstAnotherTable() {
+        Map<String, String> record = new LinkedHashMap<String, String>();
+        record.put("Fine", "Up to $2,500");
+        byte[] data = encode(record);
+        try {
+            RecordCodec.decodeRecord(data, Arrays.asList("Threshold", "Fine", "Details", "Source"));
+            fail("Expected the record to be refused");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static byte[] encode(Map<String, String> record) {
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int i = 0; i < TABLE.size(); i++) {
+            index.put(TABLE.get(i), i);
+        }
+        return RecordCodec.encodeRecord(record, TABLE, index);
+    }
+
+    private static void assertRefused(byte[] data) {
+        try {
+            RecordCodec.decodeText(data);
+            fail("Expected the text to be refused");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.data;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips the {@link StateSnapshot} and checks that snapshots in an older format are ignored
+ */
+public class StateSnapshotTest {
+
+    private File directory;
+    private Context context;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("snapshot", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        context = new ContextWrapper(null) {
+            @Override
+            public File getFilesDir() {
+                return directory;
+            }
+        };
+    }
+
+    @After
+    public void deleteDirectory() {
+        StateSnapshot.clear(context);
+        directory.delete();
+    }
+
+    @Test
+    public void readsBackWhatWasSaved() {
+        Map<String, String> record = new LinkedHashMap<String, String>();
+        record.put("State", "Ohio");
+        record.put("Fine", "Up to $2,500");
+        record.put("Details", "<p>Reckless driving — a misdemeanor</p>");
+        new StateSnapshot("Ohio", record, "<html>Ohio</html>").save(context);
+
+        StateSnapshot snapshot = StateSnapshot.load(context);
+        assertEquals("Ohio", snapshot.getState());
+        assertEquals(record, snapshot.getStateInfo());
+        assertEquals("<html>Ohio</html>", snapshot.getRenderedPage());
+    }
+
+    @Test
+    public void keepsAMissingPageMissing() {
+        new StateSnapshot("Ohio", new LinkedHashMap<String, String>(), null).save(context);
+        assertNull(StateSnapshot.load(context).getRenderedPage());
+    }
+
+    @Test
+    public void ignoresAnOlderFormat() throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(directory, StateSnapshot.FILE_NAME)));
+        out.writeInt(StateSnapshot.FORMAT_VERSION - 1);
+        out.writeInt(0);
+        out.close();
+
+        assertNull(StateSnapshot.load(context));
+    }
+
+    @Test
+    public void nothingSavedLoadsNothing() {
+        assertNull(StateSnapshot.load(context));
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.data;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks lane order, preemption and the background bound of the {@link TaskScheduler}
+ */
+public class TaskSchedulerTest {
+
+    private final TaskScheduler scheduler = TaskScheduler.get();
+
+    @Test
+    public void renderPreemptsBackgroundWhenAllWorkersAreBusy() throws InterruptedException {
+        final CountDownLatch releaseBackground = new CountDownLatch(1);
+        final CountDownLatch backgroundStarted = new CountDownLatch(1);
+        final AtomicInteger backgroundRuns = new AtomicInteger();
+        scheduler.submit(new TaskScheduler.PreemptibleJob() {
+            @Override
+            public boolean run() {
+                backgroundRuns.incrementAndGet();
+                backgroundStarted.countDown();
+                try {
+                    releaseBackground.await();
+                    return true;
+                } catch (InterruptedException e) {
+                    // Preempted, the scheduler runs it again
+                    return false;
+                }
+            }
+        });
+        assertTrue(backgroundStarted.await(5, TimeUnit.SECONDS));
+
+        occupyForegroundWorkersAndCross();
+        releaseBackground.countDown();
+        waitForIdle();
+        assertEquals(2, backgroundRuns.get());
+    }
+
+    @Test
+    public void preemptedJobThatFinishedAnywayIsNotRunAgain() throws InterruptedException {
+        final CountDownLatch releaseBackground = new CountDownLatch(1);
+        final CountDownLatch backgroundStarted = new CountDownLatch(1);
+        final AtomicInteger backgroundRuns = new AtomicInteger();
+        scheduler.submit(new TaskScheduler.PreemptibleJob() {
+            @Override
+            public boolean run() {
+                backgroundRuns.incrementAndGet();
+                backgroundStarted.countDown();
+                try {
+                    releaseBackground.await();
+                } catch (InterruptedException e) {
+                    // Interrupted on its last step, there's nothing left to do
+                }
+                return true;
+            }
+        });
+        assertTrue(backgroundStarted.await(5, TimeUnit.SECONDS));
+
+        occupyForegroundWorkersAndCross();
+        releaseBackground.countDown();
+        waitForIdle();
+        assertEquals(1, backgroundRuns.get());
+    }
+
+    @Test
+    public void plainBackgroundJobsAreNeverInterrupted() throws InterruptedException {
+        final CountDownLatch releaseBackground = new CountDownLatch(1);
+        final CountDownLatch backgroundStarted = new CountDownLatch(1);
+        final AtomicInteger backgroundRuns = new AtomicInteger();
+        final AtomicInteger interrupts = new AtomicInteger();
+        scheduler.submit(TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                backgroundRuns.incrementAndGet();
+                backgroundStarted.countDown();
+                try {
+                    releaseBackground.await();
+                } catch (InterruptedException e) {
+                    interrupts.incrementAndGet();
+                }
+            }
+        });
+        assertTrue(backgroundStarted.await(5, TimeUnit.SECONDS));
+
+        // The crossing job waits for a render to finish rather than interrupt the file write
+        final CountDownLatch releaseRenders = new CountDownLatch(1);
+        takeForegroundWorkers(releaseRenders);
+        final CountDownLatch crossingRan = new CountDownLatch(1);
+        scheduler.submit(TaskScheduler.CROSSING, new Runnable() {
+            @Override
+            public void run() {
+                crossingRan.countDown();
+            }
+        });
+        assertFalse(crossingRan.await(200, TimeUnit.MILLISECONDS));
+        releaseRenders.countDown();
+        assertTrue(crossingRan.await(5, TimeUnit.SECONDS));
+
+        releaseBackground.countDown();
+        waitForIdle();
+        assertEquals(1, backgroundRuns.get());
+        assertEquals(0, interrupts.get());
+    }
+
+    @Test
+    public void queuedPreemptibleWorkIsBounded() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                awaitQuietly(release);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < TaskScheduler.MAX_QUEUED_BACKGROUND + 4; i++) {
+            scheduler.submit(new TaskScheduler.PreemptibleJob() {
+                @Override
+                public boolean run() {
+                    runs.incrementAndGet();
+                    return true;
+                }
+            });
+        }
+        assertEquals(TaskScheduler.MAX_QUEUED_BACKGROUND, scheduler.getQueueDepth(TaskScheduler.BACKGROUND));
+
+        release.countDown();
+        waitForIdle();
+        assertEquals(TaskScheduler.MAX_QUEUED_BACKGROUND, runs.get());
+    }
+
+    @Test
+    public void plainBackgroundJobsAreNeverDropped() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                awaitQuietly(release);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Such as a widget update that has to finish its receiver's pending result
+        final AtomicInteger runs = new AtomicInteger();
+        int submitted = TaskScheduler.MAX_QUEUED_BACKGROUND + 4;
+        for (int i = 0; i < submitted; i++) {
+            scheduler.submit(TaskScheduler.BACKGROUND, new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            });
+        }
+        assertEquals(submitted, scheduler.getQueueDepth(TaskScheduler.BACKGROUND));
+
+        release.countDown();
+        waitForIdle();
+        assertEquals(submitted, runs.get());
+    }
+
+    /**
+     * Fill the two foreground workers, check crossing work preempts the background job and then let
+     * the foreground work finish
+     */
+    private void occupyForegroundWorkersAndCross() throws InterruptedException {
+        final CountDownLatch releaseRenders = new CountDownLatch(1);
+        takeForegroundWorkers(releaseRenders);
+
+        final CountDownLatch crossingRan = new CountDownLatch(1);
+        scheduler.submit(TaskScheduler.CROSSING, new Runnable() {
+            @Override
+            public void run() {
+                crossingRan.countDown();
+            }
+        });
+        assertTrue("crossing work waited for background work", crossingRan.await(5, TimeUnit.SECONDS));
+        releaseRenders.countDown();
+    }
+
+    /**
+     * Take the two workers background work leaves free, until released
+     */
+    private void takeForegroundWorkers(final CountDownLatch release) throws InterruptedException {
+        final CountDownLatch rendersStarted = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            scheduler.submit(TaskScheduler.RENDER, new Runnable() {
+                @Override
+                public void run() {
+                    rendersStarted.countDown();
+                    awaitQuietly(release);
+                }
+            });
+        }
+        assertTrue(rendersStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    private void waitForIdle() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // The last background job has been taken, run one more behind it
+        scheduler.submit(TaskScheduler.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // Only background work is interrupted
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.diagnostics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips sessions through the {@link SessionLog}, including logs written before counters
+ * were added
+ */
+public class SessionLogTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("diagnostics", ".log");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void readsBackSessionsNewestFirst() {
+        SessionLog log = new SessionLog(file);
+        log.append(session(1000, 7));
+        log.append(session(2000, 8));
+
+        List<SessionLog.Session> sessions = log.read();
+        assertEquals(2, sessions.size());
+        assertEquals(2000, sessions.get(0).start);
+        assertEquals(8, sessions.get(0).values[Diagnostics.LOCATION_FIXES]);
+        assertEquals(1000, sessions.get(1).start);
+    }
+
+    @Test
+    public void overwritesTheOldestSessionOnceFull() {
+        SessionLog log = new SessionLog(file);
+        for (int i = 0; i < SessionLog.CAPACITY + 3; i++) {
+            log.append(session(i, i));
+        }
+
+        List<SessionLog.Session> sessions = log.read();
+        assertEquals(SessionLog.CAPACITY, sessions.size());
+        assertEquals(SessionLog.CAPACITY + 2, sessions.get(0).start);
+        assertEquals(3, sessions.get(SessionLog.CAPACITY - 1).start);
+    }
+
+    @Test
+    public void keepsSessionsLoggedBeforeCountersWereAdded() throws IOException {
+        int oldCounters = Diagnostics.COUNTER_COUNT - 2;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeInt(1);
+            raf.writeInt(oldCounters);
+            raf.writeLong(1);
+            raf.writeLong(1000);
+            raf.writeLong(2000);
+            for (int i = 0; i < oldCounters; i++) {
+                raf.writeLong(i + 1);
+            }
+        } finally {
+            raf.close();
+        }
+
+        SessionLog log = new SessionLog(file);
+        assertEquals(1, log.read().size());
+        log.append(session(3000, 5));
+
+        List<SessionLog.Session> sessions = log.read();
+        assertEquals(2, sessions.size());
+        assertEquals(3000, sessions.get(0).start);
+        SessionLog.Session old = sessions.get(1);
+        assertEquals(1000, old.start);
+        assertEquals(2000, old.end);
+        assertEquals(Diagnostics.COUNTER_COUNT, old.values.length);
+        assertEquals(oldCounters, old.values[oldCounters - 1]);
+        assertEquals(0, old.values[Diagnostics.COUNTER_COUNT - 1]);
+    }
+
+    private static SessionLog.Session session(long start, long fixes) {
+        long[] values = new long[Diagnostics.COUNTER_COUNT];
+        values[Diagnostics.LOCATION_FIXES] = fixes;
+        return new SessionLog.Session(start, start + 500, values);
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.journal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips crossings through the {@link TripJournal} and {@link TripJournalReader}
+ */
+public class TripJournalTest {
+
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("trips", ".journal");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void readsBackFlushedCrossingsGroupedIntoTrips() throws IOException {
+        TripJournal journal = new TripJournal(file);
+        journal.append(1000, true, 39.72, -80.52, 12.5f, "Pennsylvania", "West Virginia", 1450000000);
+        journal.append(1000 + HOUR_MS, false, 0, 0, 0, "West Virginia", "Virginia", 0);
+        journal.append(1000 + 24 * HOUR_MS, true, 41.0, -104.05, 30f, "Colorado", "Wyoming", 1450000001);
+
+        assertTrue("buffered crossings aren't written yet", TripJournalReader.readTrips(file).isEmpty());
+        journal.flush();
+
+        List<TripJournalReader.Trip> trips = TripJournalReader.readTrips(file);
+        assertEquals(2, trips.size());
+
+        // Newest first
+        assertEquals(1, trips.get(0).crossings.size());
+        assertEquals("Wyoming", trips.get(0).crossings.get(0).newState);
+
+        TripJournalReader.Trip first = trips.get(1);
+        assertEquals(2, first.crossings.size());
+        TripJournalReader.Crossing crossing = first.crossings.get(0);
+        assertEquals(1000, crossing.time);
+        assertTrue(crossing.hasPosition);
+        assertEquals(39.72, crossing.latitude, 0);
+        assertEquals(-80.52, crossing.longitude, 0);
+        assertEquals(12.5f, crossing.accuracy, 0);
+        assertEquals("Pennsylvania", crossing.oldState);
+        assertEquals("West Virginia", crossing.newState);
+        assertEquals(1450000000, crossing.recordVersion);
+        assertFalse(first.crossings.get(1).hasPosition);
+    }
+
+    @Test
+    public void writesFullBatchesWithoutFlush() throws IOException {
+        TripJournal journal = new TripJournal(file);
+        for (int i = 0; i < TripJournal.BATCH; i++) {
+            journal.append(i, false, 0, 0, 0, "Ohio", "Indiana", 0);
+        }
+        assertEquals(TripJournal.BATCH, TripJournalReader.readTrips(file).get(0).crossings.size());
+    }
+
+    @Test
+    public void dropsPartlyWrittenRecordOnReopen() throws IOException {
+        TripJournal journal = new TripJournal(file);
+        journal.append(1, false, 0, 0, 0, "Ohio", "Indiana", 0);
+        journal.flush();
+
+        // A record cut short by a crash
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() + TripJournal.RECORD_SIZE / 2);
+        raf.close();
+
+        TripJournal reopened = new TripJournal(file);
+        reopened.append(2, false, 0, 0, 0, "Indiana", "Illinois", 0);
+        reopened.flush();
+
+        List<TripJournalReader.Crossing> crossings = TripJournalReader.readTrips(file).get(0).crossings;
+        assertEquals(2, crossings.size());
+        assertEquals("Illinois", crossings.get(1).newState);
+    }
+}
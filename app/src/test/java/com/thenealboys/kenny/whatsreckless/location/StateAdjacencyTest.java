@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.location;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the border graph and the guesses of the next state made from it
+ */
+public class StateAdjacencyTest {
+
+    @Test
+    public void everyBorderIsListedFromBothSides() {
+        for (int id = 0; id < StateResolver.count(); id++) {
+            for (int neighbour : StateAdjacency.neighboursOf(id)) {
+                assertNotEquals(StateResolver.UNKNOWN, neighbour);
+                assertTrue(StateResolver.nameOf(neighbour) + " doesn't list " + StateResolver.nameOf(id),
+                        contains(StateAdjacency.neighboursOf(neighbour), id));
+            }
+        }
+    }
+
+    @Test
+    public void islandsHaveNoNeighbours() {
+        assertEquals(0, StateAdjacency.neighboursOf(StateResolver.resolve("Hawaii")).length);
+        assertEquals(0, StateAdjacency.neighboursOf(StateResolver.resolve("Puerto Rico")).length);
+        assertEquals(0, StateAdjacency.neighboursOf(StateResolver.UNKNOWN).length);
+    }
+
+    @Test
+    public void predictsTheNeighbourAhead() {
+        // Arlington, heading north over the Potomac
+        assertEquals("Maryland", StateAdjacency.predictNext("Virginia", 38.88, -77.10, 0, 20));
+        // Kansas City, Kansas, heading east
+        assertEquals("Missouri", StateAdjacency.predictNext("Kansas", 39.10, -94.70, 90, 20));
+        // El Paso, heading west
+        assertEquals("New Mexico", StateAdjacency.predictNext("Texas", 31.76, -106.49, 270, 20));
+    }
+
+    @Test
+    public void noGuessWhenHeadingAwayFromEveryNeighbour() {
+        // Key West, heading south out to sea
+        assertNull(StateAdjacency.predictNext("Florida", 24.56, -81.78, 180, 20));
+        assertNull(StateAdjacency.predictNext("Hawaii", 21.31, -157.86, 0, 20));
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int candidate : ids) {
+            if (candidate == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
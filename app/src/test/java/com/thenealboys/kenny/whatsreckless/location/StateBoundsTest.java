@@ -0,0 +1,63 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.location;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks which fixes are treated as close enough to a border to need GPS
+ */
+public class StateBoundsTest {
+
+    private static final double MARGIN_KM = 5;
+
+    @Test
+    public void pointsNearAStateLineAreNearBorder() {
+        // Bristol, on the Virginia and Tennessee line
+        assertTrue(StateBounds.isNearBorder("Virginia", 36.60, -82.19, MARGIN_KM));
+        // Washington, inside the District's box
+        assertTrue(StateBounds.isNearBorder("Maryland", 38.90, -77.03, MARGIN_KM));
+    }
+
+    @Test
+    public void pointsWellInsideAStateAreNot() {
+        // Salina, in the middle of Kansas
+        assertFalse(StateBounds.isNearBorder("Kansas", 38.84, -97.61, MARGIN_KM));
+    }
+
+    @Test
+    public void overlappingBoxesOfStatesWithNoSharedBorderDontCount() {
+        // Rockford lies in Michigan's box, but Illinois and Michigan only meet across the lake
+        assertFalse(StateBounds.isNearBorder("Illinois", 42.27, -89.09, MARGIN_KM));
+    }
+
+    @Test
+    public void coastsAndForeignBordersDontCount() {
+        // Key West, at the bottom of Florida's box
+        assertFalse(StateBounds.isNearBorder("Florida", 24.56, -81.78, MARGIN_KM));
+        // Raymond, on the Canadian border
+        assertFalse(StateBounds.isNearBorder("Montana", 48.99, -104.57, MARGIN_KM));
+    }
+
+    @Test
+    public void pointsOutsideTheStateAreNearBorder() {
+        // Denver, with the state not yet updated from Kansas
+        assertTrue(StateBounds.isNearBorder("Kansas", 39.74, -104.99, MARGIN_KM));
+        assertTrue(StateBounds.isNearBorder("Atlantis", 39.74, -104.99, MARGIN_KM));
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.location;
+
+import com.thenealboys.kenny.whatsreckless.diagnostics.Diagnostics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that every form of a state's name resolves to the same id
+ */
+public class StateResolverTest {
+
+    @Test
+    public void resolvesAbbreviationsNamesAndAnchors() {
+        int id = StateResolver.resolve("New York");
+        assertEquals(id, StateResolver.resolve("NY"));
+        assertEquals(id, StateResolver.resolve("ny"));
+        assertEquals(id, StateResolver.resolve("New_York"));
+        assertEquals(id, StateResolver.resolve("  new   york "));
+        assertEquals("New York", StateResolver.nameOf(id));
+        assertEquals("NY", StateResolver.abbreviationOf(id));
+        assertEquals("New_York", StateResolver.anchorOf(id));
+    }
+
+    @Test
+    public void resolvesLocalizedNames() {
+        assertEquals("North Carolina", StateResolver.canonicalName("Carolina del Norte"));
+        assertEquals("West Virginia", StateResolver.canonicalName("Virginie-Occidentale"));
+        assertEquals("New Mexico", StateResolver.canonicalName("Nuevo Mexico"));
+        assertEquals("Hawaii", StateResolver.canonicalName("Hawaï"));
+    }
+
+    @Test
+    public void coversDistrictOfColumbiaAndTerritories() {
+        assertEquals("District of Columbia", StateResolver.canonicalName("Washington, D.C."));
+        assertEquals("District of Columbia", StateResolver.canonicalName("DC"));
+        assertEquals("Washington", StateResolver.canonicalName("WA"));
+        assertEquals("Puerto Rico", StateResolver.canonicalName("PR"));
+        assertEquals("U.S. Virgin Islands", StateResolver.canonicalName("VI"));
+    }
+
+    @Test
+    public void countsMisses() {
+        long before = Diagnostics.current().values[Diagnostics.STATE_RESOLVE_MISSES];
+        assertEquals(StateResolver.UNKNOWN, StateResolver.resolve("Ontario"));
+        assertNull(StateResolver.canonicalName(null));
+        assertEquals(before + 2, Diagnostics.current().values[Diagnostics.STATE_RESOLVE_MISSES]);
+    }
+
+    @Test
+    public void keepsTheIdsTheJournalAndBoundsUse() {
+        assertEquals(0, StateResolver.resolve("Alabama"));
+        assertEquals(8, StateResolver.resolve("District of Columbia"));
+        assertEquals(50, StateResolver.resolve("Wyoming"));
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.render;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that sanitized Details keep their text but nothing that could be fetched
+ */
+public class DetailsSanitizerTest {
+
+    private static Element details(String html) {
+        return Jsoup.parse("<div id=\"details\">" + html + "</div>", "http://en.wikipedia.org/wiki/Reckless_driving")
+                .getElementById("details");
+    }
+
+    @Test
+    public void keepsTextAndFormatting() {
+        String clean = DetailsSanitizer.sanitize(details("<p>Reckless driving is a <b>class 1</b> misdemeanor.</p>"));
+        assertEquals("<p>Reckless driving is a <b>class 1</b> misdemeanor.</p>", clean);
+    }
+
+    @Test
+    public void dropsLinksReferencesAndImages() {
+        String clean = DetailsSanitizer.sanitize(details("<p>See <a href=\"/wiki/Ohio\">Ohio</a> law"
+                + "<sup class=\"reference\"><a href=\"#cite_note-1\">[1]</a></sup>"
+                + "<img src=\"//upload.wikimedia.org/sign.png\">"
+                + "<span class=\"mw-editsection\">[edit]</span>"
+                + "<span style=\"background:url(http://example.com/x.png)\">.</span></p>"));
+        assertEquals("<p>See Ohio law.</p>", clean);
+    }
+
+    @Test
+    public void leavesTheArticleUntouched() {
+        Element details = details("<p><a href=\"/wiki/Ohio\">Ohio</a></p>");
+        DetailsSanitizer.sanitize(details);
+        assertEquals(1, details.select("a").size());
+    }
+}
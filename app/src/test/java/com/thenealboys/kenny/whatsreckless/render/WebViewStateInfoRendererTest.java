@@ -0,0 +1,51 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.render;
+
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+import com.thenealboys.kenny.whatsreckless.sources.LawAggregator;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the rendered page escapes text from the article and other law sources
+ */
+public class WebViewStateInfoRendererTest {
+
+    @Test
+    public void escapesValuesColumnsAndSourcesButKeepsDetailsMarkup() {
+        Map<String, String> record = new LinkedHashMap<String, String>();
+        record.put("Fine", "<script>alert(1)</script>");
+        record.put("Move <b>over</b>", "Fines & fees");
+        record.put(InformationAsyncTask.DETAILS, "<p>Sanitized</p>");
+        record.put(InformationAsyncTask.COLUMN_NAMES, "Fine,Move <b>over</b>,Details");
+        record.put(LawAggregator.PROVENANCE, "Fine\t<img src=x>\n");
+
+        String page = WebViewStateInfoRenderer.toHtml(record);
+
+        assertFalse(page.contains("<script>"));
+        assertTrue(page.contains("&lt;script&gt;alert(1)&lt;/script&gt;"));
+        assertTrue(page.contains("Move &lt;b&gt;over&lt;/b&gt;"));
+        assertTrue(page.contains("Fines &amp; fees"));
+        assertTrue(page.contains("<div class=\"src\">&lt;img src=x&gt;</div>"));
+        assertTrue(page.contains("<p>Sanitized</p>"));
+    }
+}
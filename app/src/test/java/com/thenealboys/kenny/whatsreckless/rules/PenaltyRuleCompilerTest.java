@@ -0,0 +1,84 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.rules;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compiles penalty wording seen in the article into {@link PenaltyRules}
+ */
+public class PenaltyRuleCompilerTest {
+
+    private static final String[] COLUMNS = { "Threshold", "Fine" };
+
+    @Test
+    public void speedFollowedByOverTheLimitIsRelative() {
+        PenaltyRules rules = compile("20 mph over the limit");
+        assertEquals(20f, rules.overLimitMph, 0f);
+        assertTrue(Float.isNaN(rules.absoluteMph));
+    }
+
+    @Test
+    public void speedAfterExceedingTheLimitByIsRelative() {
+        PenaltyRules rules = compile("Exceeding the speed limit by 20 mph");
+        assertEquals(20f, rules.overLimitMph, 0f);
+        assertTrue(Float.isNaN(rules.absoluteMph));
+
+        assertEquals(15f, compile("Speeding by more than 15 mph").overLimitMph, 0f);
+    }
+
+    @Test
+    public void postedLimitsAreNotThresholds() {
+        PenaltyRules rules = compile("25 mph over the limit in a 55 mph zone");
+        assertEquals(25f, rules.overLimitMph, 0f);
+        assertTrue(Float.isNaN(rules.absoluteMph));
+
+        rules = compile("Over 80 mph where the limit is 65 mph");
+        assertEquals(80f, rules.absoluteMph, 0f);
+    }
+
+    @Test
+    public void speedWithoutRelativeWordingIsAbsolute() {
+        PenaltyRules rules = compile("Over 80 mph, or 20 mph over the limit");
+        assertEquals(80f, rules.absoluteMph, 0f);
+        assertEquals(20f, rules.overLimitMph, 0f);
+    }
+
+    @Test
+    public void implausiblyLowAbsoluteThresholdsAreRejected() {
+        PenaltyRules rules = compile("Driving at 20 mph on a closed road");
+        assertTrue(Float.isNaN(rules.absoluteMph));
+        assertFalse(rules.hasThreshold());
+    }
+
+    @Test
+    public void finesSpanTheAmountsGiven() {
+        PenaltyRules rules = PenaltyRuleCompiler.compile(COLUMNS,
+                Collections.singletonMap("Fine", "$250 to $2,500"));
+        assertEquals(250, rules.getFineMin());
+        assertEquals(2500, rules.getFineMax());
+    }
+
+    private static PenaltyRules compile(String threshold) {
+        Map<String, String> record = Collections.singletonMap("Threshold", threshold);
+        return PenaltyRuleCompiler.compile(COLUMNS, record);
+    }
+}
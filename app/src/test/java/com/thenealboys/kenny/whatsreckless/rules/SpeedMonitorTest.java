@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.rules;
+
+import android.content.ContextWrapper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks when the {@link SpeedMonitor} warns, with the record lookup, the clock and the warning
+ * replaced
+ */
+public class SpeedMonitorTest {
+
+    private static final float POSTED_LIMIT_MPH = 65;
+
+    private static class TestMonitor extends SpeedMonitor {
+        PenaltyRules cached;
+        long time = 1000;
+        final List<Float> warnings = new ArrayList<Float>();
+
+        TestMonitor(PenaltyRules cached) {
+            super(new ContextWrapper(null), null, POSTED_LIMIT_MPH);
+            this.cached = cached;
+        }
+
+        @Override
+        PenaltyRules lookupRules(String state) {
+            return cached;
+        }
+
+        @Override
+        void warn(String state, float speed, float threshold) {
+            warnings.add(speed);
+        }
+
+        @Override
+        long now() {
+            return time;
+        }
+    }
+
+    @Test
+    public void warnsOnceUntilTheSpeedDropsWellUnderTheThreshold() {
+        TestMonitor monitor = new TestMonitor(new PenaltyRules(80, Float.NaN, -1, -1));
+        monitor.onSpeed("Virginia", 70);
+        assertTrue(monitor.warnings.isEmpty());
+
+        monitor.onSpeed("Virginia", 81);
+        monitor.onSpeed("Virginia", 85);
+        // Just under the threshold isn't far enough to warn again
+        monitor.onSpeed("Virginia", 80 - SpeedMonitor.HYSTERESIS_MPH + 1);
+        monitor.onSpeed("Virginia", 82);
+        assertEquals(1, monitor.warnings.size());
+
+        monitor.onSpeed("Virginia", 80 - SpeedMonitor.HYSTERESIS_MPH - 1);
+        monitor.onSpeed("Virginia", 81);
+        assertEquals(2, monitor.warnings.size());
+    }
+
+    @Test
+    public void relativeThresholdsUseThePostedLimit() {
+        TestMonitor monitor = new TestMonitor(new PenaltyRules(Float.NaN, 20, -1, -1));
+        monitor.onSpeed("Ohio", POSTED_LIMIT_MPH + 19);
+        assertTrue(monitor.warnings.isEmpty());
+        monitor.onSpeed("Ohio", POSTED_LIMIT_MPH + 20);
+        assertEquals(1, monitor.warnings.size());
+    }
+
+    @Test
+    public void aNewStateCanWarnAgain() {
+        TestMonitor monitor = new TestMonitor(new PenaltyRules(80, Float.NaN, -1, -1));
+        monitor.onSpeed("Virginia", 85);
+        monitor.onSpeed("Maryland", 85);
+        assertEquals(2, monitor.warnings.size());
+    }
+
+    @Test
+    public void looksForTheRulesAgainOnceTheRecordIsCached() {
+        TestMonitor monitor = new TestMonitor(null);
+        monitor.onSpeed("Virginia", 90);
+        assertTrue(monitor.warnings.isEmpty());
+
+        // The article loaded in the meantime, but the lookup waits out the retry delay
+        monitor.cached = new PenaltyRules(80, Float.NaN, -1, -1);
+        monitor.time += SpeedMonitor.RULES_RETRY_MS - 1;
+        monitor.onSpeed("Virginia", 90);
+        assertTrue(monitor.warnings.isEmpty());
+
+        monitor.time += 1;
+        monitor.onSpeed("Virginia", 90);
+        assertEquals(1, monitor.warnings.size());
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.search;
+
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks tokenizing, ranking and the stored form of the {@link SearchIndex}
+ */
+public class SearchIndexTest {
+
+    private static Map<String, String> record(String info, String details) {
+        Map<String, String> record = new HashMap<String, String>();
+        record.put(InformationAsyncTask.SPEECH_INFO, info);
+        record.put(InformationAsyncTask.SPEECH_DETAILS, details);
+        return record;
+    }
+
+    private static SearchIndex index() {
+        Map<String, Map<String, String>> records = new LinkedHashMap<String, Map<String, String>>();
+        records.put("Virginia", record("Fine is up to $2,500.", "Radar detectors are banned in Virginia."));
+        records.put("Ohio", record("Fine is up to $150.", "Passing on the right is reckless driving."));
+        records.put("Texas", record("Fine is up to $200.", "Using a radar detector is legal."));
+        records.put("Guam", null);
+        return SearchIndex.build(records);
+    }
+
+    @Test
+    public void stemsWordFormsTogether() {
+        assertEquals(Arrays.asList("ban", "ban", "ban"), Tokenizer.tokenize("bans banned banning"));
+        assertEquals(Arrays.asList("driv", "driv"), Tokenizer.tokenize("drive driving"));
+        assertEquals(Arrays.asList("pass", "pass"), Tokenizer.tokenize("passed passing"));
+        assertEquals(Arrays.asList("detector"), Tokenizer.tokenize("Detectors"));
+    }
+
+    @Test
+    public void dropsQuestionWordsFromQueries() {
+        assertEquals(Arrays.asList("ban", "radar", "detector"),
+                Tokenizer.tokenizeQuery("Which states ban radar detectors?"));
+    }
+
+    @Test
+    public void ranksStatesMatchingMostTermsFirst() {
+        List<SearchIndex.Result> results = index().search("which states ban radar detectors");
+        assertEquals(2, results.size());
+        assertEquals("Virginia", results.get(0).state);
+        assertEquals(3, results.get(0).matchedTerms);
+        assertEquals("Texas", results.get(1).state);
+
+        assertEquals("Ohio", index().search("where is passing on the right reckless").get(0).state);
+        assertTrue(index().search("helmet").isEmpty());
+    }
+
+    @Test
+    public void roundTripsThroughItsStoredForm() throws IOException {
+        SearchIndex decoded = SearchIndex.decode(index().encode());
+        assertEquals(3, decoded.size());
+        assertEquals("Virginia", decoded.search("radar ban").get(0).state);
+    }
+}
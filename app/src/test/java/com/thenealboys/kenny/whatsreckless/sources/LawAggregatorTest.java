@@ -0,0 +1,230 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.sources;
+
+import com.thenealboys.kenny.whatsreckless.InformationAsyncTask;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that sources are merged with their provenance and that a slow source only costs its own
+ * deadline
+ */
+public class LawAggregatorTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final LawAggregator aggregator = new LawAggregator(executor);
+
+    @After
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void mergesNewColumnsBeforeTheDetailsWithTheirSource() {
+        LawSource dot = new FakeSource("State DOT", 1000, 0, laws("Move over", "Required for all vehicles", "Fine", "$1"));
+        LawSource statutes = new FakeSource("Statutes", 1000, 0, laws("Move over", "Lane change", "Wipers and lights", "Required"));
+
+        Map<String, String> merged = aggregator.aggregate("Ohio", record(), Arrays.asList(dot, statutes));
+
+        assertEquals("State,Fine,Move over,Wipers and lights,Details", merged.get(InformationAsyncTask.COLUMN_NAMES));
+        // The article wins over the sources, earlier sources over later ones
+        assertEquals("Up to $500", merged.get("Fine"));
+        assertNull(LawAggregator.sourceOf(merged, "Fine"));
+        assertEquals("Required for all vehicles", merged.get("Move over"));
+        assertEquals("State DOT", LawAggregator.sourceOf(merged, "Move over"));
+        assertEquals("Statutes", LawAggregator.sourceOf(merged, "Wipers and lights"));
+        assertTrue(merged.get(InformationAsyncTask.SPEECH_INFO).contains("Move over is Required for all vehicles."));
+        assertEquals("State DOT,Statutes", merged.get(LawAggregator.ANSWERED));
+    }
+
+    @Test
+    public void slowSourceOnlyCostsItsOwnDeadline() {
+        LawSource fast = new FakeSource("Fast", 500, 0, laws("Move over", "Required"));
+        LawSource slow = new FakeSource("Slow", 200, 5000, laws("Wipers and lights", "Required"));
+
+        long start = System.nanoTime();
+        Map<String, String> merged = aggregator.aggregate("Ohio", record(), Arrays.asList(slow, fast));
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("took " + elapsed + " ms", elapsed < 1000);
+        assertEquals("Required", merged.get("Move over"));
+        assertNull(merged.get("Wipers and lights"));
+        assertEquals("Fast", merged.get(LawAggregator.ANSWERED));
+    }
+
+    @Test
+    public void deadlinesAreCountedFromWhenAllWereAsked() {
+        LawSource first = new FakeSource("First", 400, 5000, laws("Move over", "Required"));
+        LawSource second = new FakeSource("Second", 400, 5000, laws("Wipers and lights", "Required"));
+
+        long start = System.nanoTime();
+        Map<String, String> merged = aggregator.aggregate("Ohio", record(), Arrays.asList(first, second));
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        // Waiting out each deadline in turn would take 800 ms
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 700);
+        // Neither answered in time, the record is left as it was
+        assertEquals(record(), merged);
+    }
+
+    @Test
+    public void onlySourcesThatHaventAnsweredArePending() {
+        LawSource answered = new FakeSource("Answered", 1000, 0, laws("Move over", "Required"));
+        LawSource failing = new FakeSource("Failing", 1000, 0, null) {
+            @Override
+            public Map<String, String> fetch(String state) throws IOException {
+                throw new IOException("unreachable");
+            }
+        };
+        aggregator.register(answered);
+        aggregator.register(failing);
+
+        Map<String, String> merged = aggregator.aggregate("Ohio", record(), aggregator.pendingFor(record()));
+
+        assertEquals(Collections.singletonList(failing), aggregator.pendingFor(merged));
+    }
+
+    @Test
+    public void detailsFromASourceAreSanitized() {
+        Map<String, String> record = record();
+        record.put(InformationAsyncTask.DETAILS, "");
+        LawSource source = new FakeSource("Statutes", 1000, 0, laws(InformationAsyncTask.DETAILS,
+                "<p>A <a href=\"http://example.com/\">misdemeanor</a><img src=\"http://example.com/x.png\"></p>"
+                        + "<script>alert(1)</script>"));
+
+        Map<String, String> merged = aggregator.aggregate("Ohio", record, Collections.singletonList(source));
+
+        assertEquals("<p>A misdemeanor</p>", merged.get(InformationAsyncTask.DETAILS));
+        assertTrue(merged.get(InformationAsyncTask.SPEECH_DETAILS).contains("misdemeanor"));
+        assertEquals("State,Fine,Details", merged.get(InformationAsyncTask.COLUMN_NAMES));
+    }
+
+    @Test
+    public void sourcesCantSetReservedKeys() {
+        LawSource source = new FakeSource("Statutes", 1000, 0, laws(
+                LawAggregator.PROVENANCE, "Fine\tStatutes",
+                LawAggregator.ANSWERED, "Everyone",
+                InformationAsyncTask.SPEECH_INFO, "Nothing to see.",
+                InformationAsyncTask.RECORD_VERSION, "0",
+                "Move over", "Required"));
+
+        Map<String, String> merged = aggregator.aggregate("Ohio", record(), Collections.singletonList(source));
+
+        assertNull(LawAggregator.sourceOf(merged, "Fine"));
+        assertEquals("Statutes", merged.get(LawAggregator.ANSWERED));
+        assertFalse(merged.get(InformationAsyncTask.SPEECH_INFO).contains("Nothing to see."));
+        assertNull(merged.get(InformationAsyncTask.RECORD_VERSION));
+        assertEquals("State,Fine,Move over,Details", merged.get(InformationAsyncTask.COLUMN_NAMES));
+    }
+
+    @Test
+    public void recordIsReturnedUntouchedWhenNoSourceAnswers() {
+        Map<String, String> record = record();
+        LawSource slow = new FakeSource("Slow", 50, 5000, laws("Move over", "Required"));
+
+        assertSame(record, aggregator.aggregate("Ohio", record, Collections.singletonList(slow)));
+        assertEquals(4, record.size());
+    }
+
+    @Test
+    public void fixtureSourceReadsTheStatesFile() throws IOException {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "law-fixtures-" + System.nanoTime());
+        assertTrue(directory.mkdirs());
+        File file = new File(directory, "New_York.properties");
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write("Wipers\\ and\\ lights=Required when wipers are in continuous use\n");
+        out.close();
+        try {
+            FixtureLawSource source = new FixtureLawSource("Fixtures", directory);
+            assertEquals("Required when wipers are in continuous use", source.fetch("NY").get("Wipers and lights"));
+            assertNull(source.fetch("Ohio"));
+        } finally {
+            file.delete();
+            directory.delete();
+        }
+    }
+
+    private static Map<String, String> record() {
+        Map<String, String> record = new LinkedHashMap<String, String>();
+        record.put("State", "Ohio");
+        record.put("Fine", "Up to $500");
+        record.put(InformationAsyncTask.DETAILS, "<p>Details</p>");
+        record.put(InformationAsyncTask.COLUMN_NAMES, "State,Fine,Details");
+        return record;
+    }
+
+    private static Map<String, String> laws(String... namesAndValues) {
+        Map<String, String> laws = new LinkedHashMap<String, String>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            laws.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return laws;
+    }
+
+    private static class FakeSource implements LawSource {
+        private final String name;
+        private final long deadlineMs;
+        private final long delayMs;
+        private final Map<String, String> laws;
+
+        FakeSource(String name, long deadlineMs, long delayMs, Map<String, String> laws) {
+            this.name = name;
+            this.deadlineMs = deadlineMs;
+            this.delayMs = delayMs;
+            this.laws = laws;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getDeadlineMs() {
+            return deadlineMs;
+        }
+
+        @Override
+        public Map<String, String> fetch(String state) throws IOException {
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+            return laws;
+        }
+    }
+}
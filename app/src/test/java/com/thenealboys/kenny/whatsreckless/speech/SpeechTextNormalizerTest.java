@@ -0,0 +1,64 @@
+/**
+ * Copyright 2014-2015 Luke Gordon and Kenny Neal
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thenealboys.kenny.whatsreckless.speech;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Splits article text into the utterances read aloud
+ */
+public class SpeechTextNormalizerTest {
+
+    @Test
+    public void splitsAtSentenceEnds() {
+        assertEquals(Arrays.asList("Reckless driving is a misdemeanor.", "Fines are up to $2,500!", "Is it a felony?"),
+                SpeechTextNormalizer.split("Reckless driving is a misdemeanor. Fines are up to $2,500! Is it a felony?"));
+    }
+
+    @Test
+    public void doesNotSplitAfterAbbreviations() {
+        List<String> utterances = SpeechTextNormalizer.split(
+                "Federal land is covered by the U.S. Code. See Va. Code Ann. 46.2-862 for details. "
+                        + "Compare W.Va. Code and N.Y. Veh. and Traf. Law.");
+        assertEquals(Arrays.asList(
+                "Federal land is covered by the U.S. Code.",
+                "See Va. Code Ann. 46.2-862 for details.",
+                "Compare W.Va. Code and N.Y. Veh. and Traf. Law."), utterances);
+    }
+
+    @Test
+    public void stripsCitationsFromMarkup() {
+        assertEquals(Arrays.asList("Reckless driving is a class 1 misdemeanor in Virginia.", "It can cost a license."),
+                SpeechTextNormalizer.toUtterances("<p>Reckless driving is a class 1 misdemeanor in Virginia.<sup class=\"reference\">[3]</sup> It can cost a license.[4]</p>"));
+    }
+
+    @Test
+    public void breaksLongSentencesAtWords() {
+        StringBuilder sentence = new StringBuilder();
+        while (sentence.length() < SpeechTextNormalizer.MAX_UTTERANCE_LENGTH * 2) {
+            sentence.append("speeding ");
+        }
+        for (String utterance : SpeechTextNormalizer.split(sentence.toString().trim())) {
+            assertTrue(utterance.length() <= SpeechTextNormalizer.MAX_UTTERANCE_LENGTH);
+            assertTrue(utterance.startsWith("speeding"));
+        }
+    }
+}